@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss;
+
+import com.github.houbie.lesscss.LessCompiler.CompilationDetails;
+import com.github.houbie.lesscss.engine.CompilationOptions;
+import com.github.houbie.lesscss.resourcereader.ResolvedResource;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.resourcereader.TrackingResourceReader;
+import com.github.houbie.lesscss.utils.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * LRU cache for the results of LESS compilations, used by {@link LessCompilerImpl#setResultCacheSize(long)}.
+ * <p/>
+ * Results are stored under a SHA-256 digest of the LESS source, all the options and the file names, together with the
+ * ResourceReader for the imports. For every resource that was read during the compilation, the cache keeps the
+ * lastModified timestamp and a digest of the content. A cached result is only returned when none of these resources
+ * changed: when the timestamp differs, the resource is read again and its digest is compared.
+ * <p/>
+ * The size of the cache is an estimate in bytes of the memory that is occupied by the results.
+ *
+ * @author Ivo Houbrechts
+ */
+public class CompilationResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(CompilationResultCache.class);
+
+    //estimated memory usage of an entry besides its strings
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private final long maxSize;
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize the maximum estimated memory usage of the cached results in bytes
+     */
+    public CompilationResultCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the key for the compilation
+     */
+    Key key(String less, ResourceReader importReader, CompilationOptions compilationOptions) {
+        MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        DigestUtils.update(messageDigest, less);
+        DigestUtils.update(messageDigest, compilationOptions.getSourceFilename());
+        DigestUtils.update(messageDigest, compilationOptions.getDestinationFilename());
+        DigestUtils.update(messageDigest, compilationOptions.getSourceMapFilename());
+        DigestUtils.update(messageDigest, compilationOptions.getOptions().toCanonicalString());
+        return new Key(DigestUtils.toHex(messageDigest.digest()), importReader);
+    }
+
+    /**
+     * @return the cached result, or null if there is none or if one of the resources that it depends on has changed
+     */
+    CompilationDetails get(Key key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || !isFresh(entry, key.importReader)) {
+            synchronized (this) {
+                if (entry != null && entries.get(key) == entry) {
+                    entries.remove(key);
+                    size -= entry.size;
+                }
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return copy(entry.details);
+    }
+
+    private boolean isFresh(Entry entry, ResourceReader importReader) {
+        for (ImportState importState : entry.imports) {
+            long lastModified = importReader.lastModified(importState.location);
+            if (lastModified != importState.lastModified) {
+                try {
+                    String digest = importState.bytes ? DigestUtils.digest(importReader.readBytes(importState.location)) :
+                            DigestUtils.digest(importReader.read(importState.location));
+                    if (digest == null ? importState.digest != null : !digest.equals(importState.digest)) {
+                        logger.debug("{} was modified", importState.location);
+                        return false;
+                    }
+                } catch (IOException e) {
+                    logger.debug("{} cannot be read", importState.location);
+                    return false;
+                }
+                importState.lastModified = lastModified;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a TrackingResourceReader that records the state of the resources read during the compilation
+     */
+    TrackingResourceReader record(ResourceReader importReader) {
+        return (importReader != null) ? new ImportRecorder(importReader) : new TrackingResourceReader(null);
+    }
+
+    /**
+     * Store the result of a compilation.
+     *
+     * @param trackingResourceReader the ResourceReader that was created with {@link #record(ResourceReader)}
+     */
+    void put(Key key, CompilationDetails details, TrackingResourceReader trackingResourceReader) {
+        List<ImportState> imports = (trackingResourceReader instanceof ImportRecorder) ?
+                ((ImportRecorder) trackingResourceReader).importStates : Collections.<ImportState>emptyList();
+        long entrySize = ENTRY_OVERHEAD + 2L * length(details.getResult()) + 2L * length(details.getSourceMap());
+        for (String location : details.getImports()) {
+            entrySize += 2L * location.length();
+        }
+        for (ImportState importState : imports) {
+            entrySize += ENTRY_OVERHEAD + 2L * importState.location.length();
+        }
+        if (entrySize > maxSize) {
+            return;
+        }
+        Entry entry = new Entry(copy(details), imports, entrySize);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += entrySize;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all the results from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the maximum estimated memory usage of the cached results in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the estimated memory usage of the cached results in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static CompilationDetails copy(CompilationDetails details) {
+        CompilationDetails result = new CompilationDetails(details.getResult(), details.getSourceMap());
+        result.setImports(new ArrayList<String>(details.getImports()));
+        return result;
+    }
+
+    private static int length(String s) {
+        return (s != null) ? s.length() : 0;
+    }
+
+    static class Key {
+        private final String digest;
+        private final ResourceReader importReader;
+
+        Key(String digest, ResourceReader importReader) {
+            this.digest = digest;
+            this.importReader = importReader;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (!digest.equals(key.digest)) return false;
+            if (importReader != null ? !importReader.equals(key.importReader) : key.importReader != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = digest.hashCode();
+            result = 31 * result + (importReader != null ? importReader.hashCode() : 0);
+            return result;
+        }
+    }
+
+    /**
+     * TrackingResourceReader that also records the lastModified timestamp and the digest of all the resources that are read.
+     */
+    static class ImportRecorder extends TrackingResourceReader {
+        private final List<ImportState> importStates = new ArrayList<ImportState>();
+
+        ImportRecorder(ResourceReader resourceReader) {
+            super(resourceReader);
+        }
+
+        @Override
+        public String read(String location) throws IOException {
+            long lastModified = getDelegate().lastModified(location);
+            String result = super.read(location);
+            importStates.add(new ImportState(location, false, lastModified, DigestUtils.digest(result)));
+            return result;
+        }
+
+        @Override
+        public byte[] readBytes(String location) throws IOException {
+            long lastModified = getDelegate().lastModified(location);
+            byte[] result = super.readBytes(location);
+            importStates.add(new ImportState(location, true, lastModified, DigestUtils.digest(result)));
+            return result;
+        }
+
+        @Override
+        public ResolvedResource resolve(String location, String directory) throws IOException {
+            ResolvedResource result = super.resolve(location, directory);
+            record(location, false, result);
+            return result;
+        }
+
+        @Override
+        public ResolvedResource resolveBytes(String location, String directory) throws IOException {
+            ResolvedResource result = super.resolveBytes(location, directory);
+            record(location, true, result);
+            return result;
+        }
+
+        private void record(String location, boolean bytes, ResolvedResource resource) {
+            if (resource == null || !resource.getLocation().equals(location)) {
+                //the result depends on the location being unresolvable
+                importStates.add(new ImportState(location, bytes, Long.MAX_VALUE, null));
+            }
+            if (resource != null) {
+                String digest = bytes ? DigestUtils.digest(resource.getBytes()) : DigestUtils.digest(resource.getContent());
+                importStates.add(new ImportState(resource.getLocation(), bytes, resource.getLastModified(), digest));
+            }
+        }
+    }
+
+    private static class ImportState {
+        private final String location;
+        private final boolean bytes;
+        private final String digest;
+        private volatile long lastModified;
+
+        ImportState(String location, boolean bytes, long lastModified, String digest) {
+            this.location = location;
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    private static class Entry {
+        private final CompilationDetails details;
+        private final List<ImportState> imports;
+        private final long size;
+
+        Entry(CompilationDetails details, List<ImportState> imports, long size) {
+            this.details = details;
+            this.imports = imports;
+            this.size = size;
+        }
+    }
+}
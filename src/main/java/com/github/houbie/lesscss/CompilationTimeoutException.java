@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss;
+
+/**
+ * Runtime exception for compilations that were aborted because they did not finish within the configured timeout.
+ */
+public class CompilationTimeoutException extends CompilationAbortedException {
+    public CompilationTimeoutException(String message) {
+        super(message);
+    }
+}
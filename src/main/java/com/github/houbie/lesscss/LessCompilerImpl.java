@@ -17,6 +17,7 @@
 package com.github.houbie.lesscss;
 
 import com.github.houbie.lesscss.engine.CompilationOptions;
+import com.github.houbie.lesscss.engine.ConcurrentLessCompilationEngine;
 import com.github.houbie.lesscss.engine.LessCompilationEngine;
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader;
 import com.github.houbie.lesscss.resourcereader.ResourceReader;
@@ -29,18 +30,31 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * LessCompiler implementation
+ * <p/>
+ * Asynchronous compilations are executed by an ExecutorService. By default, this is a pool of daemon threads
+ * (one thread when the engine does not support concurrent compilations, otherwise one per processor)
+ * with a bounded queue: when more than {@link #DEFAULT_QUEUE_CAPACITY} compilations are waiting, compileAsync throws a
+ * RejectedExecutionException. Use {@link #setExecutorService(ExecutorService)} for another queue size or rejection policy.
+ * <p/>
+ * Results of compilations are cached when a result cache size is set (see {@link #setResultCacheSize(long)}).
  *
  * @author Ivo Houbrechts
  */
 public class LessCompilerImpl implements LessCompiler {
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
     private static final String UNKNOWN_SOURCE_NAME = "unknown";
 
     private static final Logger logger = LoggerFactory.getLogger(LessCompilerImpl.class);
 
     private final LessCompilationEngine engine;
+    private ExecutorService executorService;
+    private volatile CompilationResultCache resultCache;
 
     /**
      * Default constructor
@@ -129,19 +143,128 @@ public class LessCompilerImpl implements LessCompiler {
         if (less == null) {
             throw new NullPointerException("less string may not be null");
         }
+        CompilationOptions compilationOptions = new CompilationOptions(options, sourceFilename, destinationFilename, sourceMapFilename);
+        CompilationResultCache cache = resultCache;
+        CompilationResultCache.Key cacheKey = null;
+        TrackingResourceReader trackingResourceReader;
+        if (cache != null) {
+            cacheKey = cache.key(less, importReader, compilationOptions);
+            CompilationDetails cached = cache.get(cacheKey);
+            if (cached != null) {
+                logger.debug("less compilation result found in cache");
+                return cached;
+            }
+            trackingResourceReader = cache.record(importReader);
+        } else {
+            trackingResourceReader = new TrackingResourceReader(importReader);
+        }
         logger.debug("start less compilation");
         CompilationDetails result;
-        TrackingResourceReader trackingResourceReader = new TrackingResourceReader(importReader);
-        CompilationOptions compilationOptions = new CompilationOptions(options, sourceFilename, destinationFilename, sourceMapFilename);
-        synchronized (engine) {
+        if (isConcurrent()) {
             result = engine.compile(less, compilationOptions, trackingResourceReader);
+        } else {
+            synchronized (engine) {
+                result = engine.compile(less, compilationOptions, trackingResourceReader);
+            }
         }
         result.setImports(trackingResourceReader.getReadResources());
+        if (cache != null) {
+            cache.put(cacheKey, result, trackingResourceReader);
+        }
 
         logger.debug("finished less compilation");
         return result;
     }
 
+    /**
+     * Compile a LESS String asynchronously
+     *
+     * @param less           LESS source
+     * @param importReader   ResourceReader for resolving imports
+     * @param options        compilation options
+     * @param sourceFilename name of the LESS source that can be used for reporting errors and source map generation
+     * @return Future for the CompilationDetails. A LessParseException is wrapped in an ExecutionException.
+     * @throws java.util.concurrent.RejectedExecutionException When the compilation cannot be accepted, f.i. because the queue is full
+     */
+    public Future<CompilationDetails> compileAsync(String less, ResourceReader importReader, Options options, String sourceFilename) {
+        return compileAsync(less, importReader, options, sourceFilename, getDestinationFileName(sourceFilename), getSourceMapFileName(sourceFilename));
+    }
+
+    /**
+     * Compile a LESS String asynchronously
+     *
+     * @param less                LESS source
+     * @param importReader        ResourceReader for resolving imports
+     * @param options             compilation options
+     * @param sourceFilename      name of the LESS source that can be used for reporting errors and source map generation
+     * @param destinationFilename name of the output that can be used for source map generation
+     * @param sourceMapFilename   the source map file name
+     * @return Future for the CompilationDetails. A LessParseException is wrapped in an ExecutionException.
+     * @throws java.util.concurrent.RejectedExecutionException When the compilation cannot be accepted, f.i. because the queue is full
+     */
+    public Future<CompilationDetails> compileAsync(final String less, final ResourceReader importReader, final Options options, final String sourceFilename, final String destinationFilename, final String sourceMapFilename) {
+        if (less == null) {
+            throw new NullPointerException("less string may not be null");
+        }
+        return getExecutorService().submit(new Callable<CompilationDetails>() {
+            @Override
+            public CompilationDetails call() throws Exception {
+                return compileWithDetails(less, importReader, options, sourceFilename, destinationFilename, sourceMapFilename);
+            }
+        });
+    }
+
+    private boolean isConcurrent() {
+        return engine instanceof ConcurrentLessCompilationEngine && ((ConcurrentLessCompilationEngine) engine).isConcurrent();
+    }
+
+    /**
+     * @return the ExecutorService for asynchronous compilations, the default one is created on first use
+     */
+    public synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            int threads = isConcurrent() ? Runtime.getRuntime().availableProcessors() : 1;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY), new DaemonThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            executorService = executor;
+        }
+        return executorService;
+    }
+
+    /**
+     * @param executorService ExecutorService for asynchronous compilations. It determines the number of concurrent
+     *                        compilations, the queue size and the rejection policy.
+     */
+    public synchronized void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @return the cache for compilation results, or null when it is disabled
+     */
+    public CompilationResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return the maximum size of the result cache, 0 when it is disabled
+     */
+    public long getResultCacheSize() {
+        CompilationResultCache cache = resultCache;
+        return (cache != null) ? cache.getMaxSize() : 0;
+    }
+
+    /**
+     * Keep the results of compilations, so that compiling the same source with the same options and unchanged imports
+     * returns the previous result. The least recently used results are evicted when their estimated memory usage exceeds the maximum size.
+     *
+     * @param maxSize the maximum estimated memory usage (in bytes) of the cached results, 0 disables the cache. Default: 0
+     */
+    public void setResultCacheSize(long maxSize) {
+        resultCache = (maxSize > 0) ? new CompilationResultCache(maxSize) : null;
+    }
+
     private String getSourceMapFileName(String sourceFilename) {
         return sourceFilename + ".map";
     }
@@ -151,4 +274,15 @@ public class LessCompilerImpl implements LessCompiler {
         return destinationFilename.replace(".less", ".css");
     }
 
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LessCompilationThread-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
@@ -91,6 +91,7 @@ public class Lessc {
     private static void compileToDestination(LesscCommandLineParser cmd) throws IOException {
         LessCompilationEngine engine = LessCompilationEngineFactory.create(cmd.getEngine());
         CompilationTask compilationTask = new CompilationTask(engine, cmd.getCustomJsReader(), cmd.getCacheDir());
+        compilationTask.setCacheMaxAge(cmd.getCacheMaxAge());
         CompilationUnit compilationUnit = new CompilationUnit(cmd.getSourceLocation(), cmd.getDestination(), cmd.getOptions(), cmd.getResourceReader(), cmd.getSourceMapFile());
         compilationTask.getCompilationUnits().add(compilationUnit);
         if (cmd.isDaemon()) {
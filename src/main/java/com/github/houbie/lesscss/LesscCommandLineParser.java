@@ -17,6 +17,8 @@
 package com.github.houbie.lesscss;
 
 
+import com.github.houbie.lesscss.builder.CompilationTask;
+import com.github.houbie.lesscss.builder.CompilationUnitCache;
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader;
 import com.github.houbie.lesscss.resourcereader.ResourceReader;
 import com.github.houbie.lesscss.utils.LogbackConfigurator;
@@ -60,6 +62,8 @@ public class LesscCommandLineParser {
     static final String CUSTOM_JS_OPTION = "custom-js";
     static final String ENCODING_OPTION = "encoding";
     static final String CACHE_DIR_OPTION = "cache-dir";
+    static final String CACHE_MAX_AGE_OPTION = "cache-max-age";
+    static final String CACHE_STATS_OPTION = "cache-stats";
     static final String DAEMON_OPTION = "daemon";
     static final String ENGINE_OPTION = "engine";
     static final String VERBOSE_OPTION = "verbose";
@@ -87,6 +91,7 @@ public class LesscCommandLineParser {
     private Reader customJsReader;
     private boolean verbose;
     private File cacheDir;
+    private long cacheMaxAge = CompilationTask.DEFAULT_CACHE_MAX_AGE;
     private boolean daemon;
     private String engine;
 
@@ -98,7 +103,7 @@ public class LesscCommandLineParser {
         org.apache.commons.cli.Options cliOptions = createOptions();
         CommandLine commandLine = parseCommandLine(args, cliOptions);
 
-        if (printHelp(commandLine, cliOptions) || printVersion(commandLine)) {
+        if (printHelp(commandLine, cliOptions) || printVersion(commandLine) || printCacheStatistics(commandLine)) {
             return true;
         }
 
@@ -143,8 +148,10 @@ public class LesscCommandLineParser {
         result.addOption("js", CUSTOM_JS_OPTION, true, "File with custom JavaScript functions.");
         result.addOption("e", ENCODING_OPTION, true, "Character encoding.");
         result.addOption(OptionBuilder.withLongOpt(CACHE_DIR_OPTION).hasArg().withDescription("Cache directory.").create());
+        result.addOption(OptionBuilder.withLongOpt(CACHE_MAX_AGE_OPTION).hasArg().withType(Number.class).withDescription("Remove cached information that was not used for the given number of days (default: 30, 0: never).").create());
+        result.addOption(OptionBuilder.withLongOpt(CACHE_STATS_OPTION).withDescription("Print the size of the cache directory and exit. Unused information is removed first when --cache-max-age is given.").create());
         result.addOption(OptionBuilder.withLongOpt(DAEMON_OPTION).withDescription("Start compiler daemon.").create());
-        result.addOption(OptionBuilder.hasArg().withLongOpt(ENGINE_OPTION).withDescription("JavaScript engine, either 'rhino' (default), 'nashorn' (requires JDK8) or 'commandline'.").create());
+        result.addOption(OptionBuilder.hasArg().withLongOpt(ENGINE_OPTION).withDescription("JavaScript engine, either 'rhino' (default), 'rhino-shared', 'nashorn' (requires JDK8) or 'commandline'.").create());
 
         return result;
     }
@@ -171,6 +178,31 @@ public class LesscCommandLineParser {
         return false;
     }
 
+    private boolean printCacheStatistics(CommandLine cmd) throws ParseException {
+        if (!cmd.hasOption(CACHE_STATS_OPTION)) {
+            return false;
+        }
+        setCacheDir(cmd);
+        setCacheMaxAge(cmd);
+        File dir = (cacheDir != null) ? cacheDir : CompilationTask.getDefaultCacheDir();
+        boolean evict = cmd.hasOption(CACHE_MAX_AGE_OPTION) && cacheMaxAge > 0;
+        if (evict) {
+            CompilationUnitCache.evictCacheFiles(dir, cacheMaxAge);
+        }
+        System.out.println("Cache directory " + dir + ":");
+        for (File file : CompilationUnitCache.listCacheFiles(dir)) {
+            CompilationUnitCache cache = new CompilationUnitCache(file, false);
+            if (evict) {
+                cache.evict(cacheMaxAge);
+            }
+            System.out.println(file.getName() + ": " + cache.getStatistics());
+        }
+        for (File legacyDirectory : CompilationUnitCache.listLegacyCacheDirectories(dir)) {
+            System.out.println(legacyDirectory.getName() + "/ (legacy): " + CompilationUnitCache.getLegacyStatistics(legacyDirectory));
+        }
+        return true;
+    }
+
     public static void printHelp() {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp(MAIN_COMMAND, HELP_HEADER, createOptions(), HELP_FOOTER);
@@ -185,6 +217,7 @@ public class LesscCommandLineParser {
         setResourceReader(cmd);
         setCustomJsReader(cmd);
         setCacheDir(cmd);
+        setCacheMaxAge(cmd);
         setDaemon(cmd);
         setEngine(cmd);
         checkSourceLocation();
@@ -306,6 +339,16 @@ public class LesscCommandLineParser {
         }
     }
 
+    private void setCacheMaxAge(CommandLine cmd) throws ParseException {
+        if (cmd.hasOption(CACHE_MAX_AGE_OPTION)) {
+            Number days = (Number) cmd.getParsedOptionValue(CACHE_MAX_AGE_OPTION);
+            if (days == null || days.longValue() < 0) {
+                throw new ParseException("--" + CACHE_MAX_AGE_OPTION + " requires a number of days");
+            }
+            cacheMaxAge = days.longValue() * 24 * 60 * 60 * 1000;
+        }
+    }
+
     private void setDaemon(CommandLine cmd) throws ParseException {
         daemon = cmd.hasOption(DAEMON_OPTION);
         if (daemon && destination == null) {
@@ -363,6 +406,13 @@ public class LesscCommandLineParser {
         return cacheDir;
     }
 
+    /**
+     * @return the time in milliseconds after which unused cached information is removed
+     */
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
     public boolean isDaemon() {
         return daemon;
     }
@@ -20,6 +20,7 @@ package com.github.houbie.lesscss;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author Ivo Houbrechts
@@ -412,6 +413,62 @@ public class Options implements Serializable {
         }
     }
 
+    /**
+     * Equal options have the same canonical string, regardless of the order of the global and modified variables.
+     * It is used in cache keys.
+     *
+     * @return a string that represents all the options, with the global and modified variables in alphabetical order
+     */
+    public String toCanonicalString() {
+        StringBuilder result = new StringBuilder(256);
+        result.append("compress=").append(compress)
+                .append(";optimizationLevel=").append(optimizationLevel)
+                .append(";strictImports=").append(strictImports);
+        appendString(result.append(";rootpath="), rootpath);
+        result.append(";relativeUrls=").append(relativeUrls)
+                .append(";dumpLineNumbers=").append(dumpLineNumbers)
+                .append(";minify=").append(minify)
+                .append(";dependenciesOnly=").append(dependenciesOnly)
+                .append(";strictMath=").append(strictMath)
+                .append(";strictUnits=").append(strictUnits)
+                .append(";ieCompat=").append(ieCompat)
+                .append(";javascriptEnabled=").append(javascriptEnabled)
+                .append(";lint=").append(lint)
+                .append(";silent=").append(silent)
+                .append(";sourceMap=").append(sourceMap);
+        appendString(result.append(";sourceMapRootpath="), sourceMapRootpath);
+        appendString(result.append(";sourceMapBasepath="), sourceMapBasepath);
+        result.append(";sourceMapLessInline=").append(sourceMapLessInline)
+                .append(";sourceMapMapInline=").append(sourceMapMapInline);
+        appendString(result.append(";sourceMapURL="), sourceMapURL);
+        appendVariables(result, "globalVars", globalVars);
+        appendVariables(result, "modifyVars", modifyVars);
+        return result.toString();
+    }
+
+    private static void appendVariables(StringBuilder result, String name, Map<String, String> variables) {
+        result.append(';').append(name).append("={");
+        if (variables != null) {
+            for (Map.Entry<String, String> variable : new TreeMap<String, String>(variables).entrySet()) {
+                appendString(result, variable.getKey());
+                appendString(result.append('='), variable.getValue());
+                result.append(';');
+            }
+        }
+        result.append('}');
+    }
+
+    /**
+     * Append the length before the string (-1 for null), which prevents ambiguities with separators in the string.
+     */
+    private static void appendString(StringBuilder result, String value) {
+        if (value == null) {
+            result.append(-1);
+        } else {
+            result.append(value.length()).append(':').append(value);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+/**
+ * Snapshot of the size and the usage of a cache.
+ * The hits and misses are counted since the cache object was created, they are not persisted.
+ *
+ * @author Ivo Houbrechts
+ */
+public class CacheStatistics {
+    private final int entryCount;
+    private final long size;
+    private final long hits;
+    private final long misses;
+
+    /**
+     * @param entryCount the number of entries
+     * @param size       the size of the cache on disk in bytes
+     * @param hits       the number of lookups that found an entry
+     * @param misses     the number of lookups that did not find an entry
+     */
+    public CacheStatistics(int entryCount, long size, long hits, long misses) {
+        this.entryCount = entryCount;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the size of the cache on disk in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of the lookups that found an entry, 0 when there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        String result = entryCount + " entries, " + size + " bytes";
+        if (hits + misses > 0) {
+            result += ", " + hits + " hits, " + misses + " misses (hit rate " + Math.round(getHitRate() * 100) + "%)";
+        }
+        return result;
+    }
+}
@@ -20,33 +20,61 @@ package com.github.houbie.lesscss.builder;
 import com.github.houbie.lesscss.LessCompiler;
 import com.github.houbie.lesscss.LessCompilerImpl;
 import com.github.houbie.lesscss.LessParseException;
+import com.github.houbie.lesscss.Lessc;
 import com.github.houbie.lesscss.engine.LessCompilationEngine;
+import com.github.houbie.lesscss.utils.DigestUtils;
 import com.github.houbie.lesscss.utils.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
 
 /**
  * A CompilationTask can be used to lazy compile one or more LESS files that are set with @see setCompilationUnits
  * The compilation will only be executed if one of the (imported) sources is newer than the resulting CSS.
- * A CompilationTask caches information about imported files by default in ${user.home}\.lesscss
+ * A CompilationTask caches information about imported files by default in ${user.home}\.lesscss, in a single file per
+ * custom JavaScript (see {@link CompilationUnitCache}). Units and cache files that are not used for 30 days are removed
+ * (see {@link #setCacheMaxAge(long)}).
  * This class also provides a daemon that periodically checks for changes in the (imported) LESS sources.
+ * The cached information is kept in memory, so the daemon only has to check the timestamps of the files.
  * This class is typically used in build scripts (ANT, Gradle...).
+ * <p/>
+ * When an ExecutorService is set, the compilation units are checked and compiled in parallel. This only pays off when
+ * the engine can execute multiple compilations at the same time, f.i. a PooledLessCompilationEngine.
+ * <p/>
+ * When an {@link OutputCache} is set, the results of compilations are shared through that cache (f.i. a
+ * {@link DirectoryOutputCache} on a shared drive between CI nodes). A dirty unit is not compiled when the cache contains
+ * the result for the same source, imports, options and compiler.
  *
  * @author Ivo Houbrechts
  */
 public class CompilationTask {
     private static final Logger logger = LoggerFactory.getLogger(CompilationTask.class);
 
+    public static final long DEFAULT_CACHE_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    private static final long EVICTION_INTERVAL = 60 * 60 * 1000;
+
     private File cacheDir;
     private LessCompiler lessCompiler;
     private Set<CompilationUnit> compilationUnits = new HashSet<CompilationUnit>();
     private CompilationListener compilationListener;
     private long customJavaScriptHashCode;
+    private ExecutorService executorService;
+    private boolean memoryMappedCache;
+    private boolean contentDigests;
+    private CompilationUnitCache unitCache;
+    private long cacheMaxAge = DEFAULT_CACHE_MAX_AGE;
+    private long lastEviction;
+    private OutputCache outputCache;
+    private OutputCacheEntries outputCacheEntries;
+    private final String compilerId;
 
     protected Thread daemon;
     private boolean stopDaemon;
@@ -78,7 +106,7 @@ public class CompilationTask {
      * @throws IOException When a resource cannot be read/written
      */
     public CompilationTask(LessCompilationEngine engine, File customJavaScript, File cacheDir) throws IOException {
-        this(engine, new FileReader(customJavaScript), cacheDir);
+        this(engine, new StringReader(IOUtils.read(customJavaScript)), cacheDir);
     }
 
     /**
@@ -97,15 +125,25 @@ public class CompilationTask {
      * @throws IOException When a resource cannot be read/written
      */
     public CompilationTask(LessCompilationEngine engine, Reader customJavaScriptReader, File cacheDir) throws IOException {
+        String customJavaScript = null;
         if (customJavaScriptReader != null) {
-            String customJavaScript = IOUtils.read(customJavaScriptReader);
+            customJavaScript = IOUtils.read(customJavaScriptReader);
             lessCompiler = new LessCompilerImpl(engine, customJavaScript);
             customJavaScriptHashCode = customJavaScript.hashCode();
         } else {
             lessCompiler = new LessCompilerImpl(engine);
         }
+        compilerId = engine.getClass().getName() + ':' + LessCompiler.class.getPackage().getImplementationVersion() + ':'
+                + Lessc.LESS_VERSION + ':' + DigestUtils.digest(customJavaScript);
+
+        this.cacheDir = (cacheDir == null) ? getDefaultCacheDir() : cacheDir;
+    }
 
-        this.cacheDir = (cacheDir == null) ? new File(new File(System.getProperty("user.home")), ".lesscss") : cacheDir;
+    /**
+     * @return ${user.home}/.lesscss
+     */
+    public static File getDefaultCacheDir() {
+        return new File(new File(System.getProperty("user.home")), ".lesscss");
     }
 
     /**
@@ -118,15 +156,77 @@ public class CompilationTask {
         List<CompilationUnit> compiledUnits = new ArrayList<CompilationUnit>();
         logger.debug("CompilationTask: execute");
         long start = System.currentTimeMillis();
-        for (CompilationUnit unit : compilationUnits) {
-            if (compileIfDirty(unit)) {
-                compiledUnits.add(unit);
+        if (executorService == null) {
+            for (CompilationUnit unit : compilationUnits) {
+                if (compileIfDirty(unit)) {
+                    compiledUnits.add(unit);
+                }
             }
+        } else {
+            executeInParallel(compiledUnits);
+        }
+        getUnitCache().retainMemos(compilationUnits);
+        if (cacheMaxAge > 0 && start - lastEviction >= EVICTION_INTERVAL) {
+            lastEviction = start;
+            evictCache();
         }
-        logger.debug("execute finished in {} millis", System.currentTimeMillis() - start);
+        logger.debug("execute finished in {} millis, unit cache: {}", System.currentTimeMillis() - start, getUnitCache().getStatistics());
         return compiledUnits;
     }
 
+    /**
+     * Compile all dirty units with the executorService and wait until they are all finished.
+     * Parse exceptions do not abort the execution, they are collected and thrown afterwards in a MultipleLessParseException.
+     */
+    private void executeInParallel(List<CompilationUnit> compiledUnits) throws IOException {
+        Map<CompilationUnit, Future<Boolean>> futures = new LinkedHashMap<CompilationUnit, Future<Boolean>>();
+        for (final CompilationUnit unit : compilationUnits) {
+            futures.put(unit, executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return compileIfDirty(unit);
+                }
+            }));
+        }
+
+        List<LessParseException> parseExceptions = new ArrayList<LessParseException>();
+        Throwable unexpectedException = null;
+        try {
+            for (Map.Entry<CompilationUnit, Future<Boolean>> entry : futures.entrySet()) {
+                try {
+                    if (entry.getValue().get()) {
+                        compiledUnits.add(entry.getKey());
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof LessParseException) {
+                        parseExceptions.add((LessParseException) e.getCause());
+                    } else if (unexpectedException == null) {
+                        unexpectedException = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Boolean> future : futures.values()) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the less compilations to finish");
+        }
+
+        if (unexpectedException instanceof IOException) {
+            throw (IOException) unexpectedException;
+        }
+        if (unexpectedException instanceof RuntimeException) {
+            throw (RuntimeException) unexpectedException;
+        }
+        if (unexpectedException instanceof Error) {
+            throw (Error) unexpectedException;
+        }
+        if (!parseExceptions.isEmpty()) {
+            throw new MultipleLessParseException(parseExceptions, compiledUnits);
+        }
+    }
+
     /**
      * Start a daemon thread that will execute this CompilationTask periodically.
      *
@@ -147,6 +247,11 @@ public class CompilationTask {
                             if (!units.isEmpty() && compilationListener != null) {
                                 compilationListener.notifySuccessfulCompilation(units);
                             }
+                        } catch (MultipleLessParseException e) {
+                            System.out.println(e.getMessage());
+                            if (!e.getCompiledUnits().isEmpty() && compilationListener != null) {
+                                compilationListener.notifySuccessfulCompilation(e.getCompiledUnits());
+                            }
                         } catch (LessParseException e) {
                             System.out.println(e.getMessage());
                         }
@@ -183,16 +288,18 @@ public class CompilationTask {
 
             try {
                 String sourceMapFileName = unit.getSourceMapFile() != null ? unit.getSourceMapFile().getPath() : null;
-                CompilationDetails compilationResult = lessCompiler.compileWithDetails(unit.getSourceAsString(), unit.getResourceReader(), unit.getOptions(), unit.getSourceLocation(), unit.getDestination().getPath(), sourceMapFileName);
+                CompilationDetails compilationResult = compile(unit, sourceMapFileName, start);
                 if (unit.getDestination() != null) {
                     unit.getDestination().getAbsoluteFile().getParentFile().mkdirs();
-                    IOUtils.writeFile(compilationResult.getResult(), unit.getDestination(), unit.getEncoding());
+                    boolean written = IOUtils.writeFileIfChanged(compilationResult.getResult(), unit.getDestination(), unit.getEncoding());
+                    //the timestamp of an unchanged destination is not updated, so the unit keeps the compilation time instead
+                    unit.setCompilationTimestamp(written ? 0 : start);
                 }
                 if (unit.getSourceMapFile() != null && compilationResult.getSourceMap() != null) {
                     unit.getSourceMapFile().getAbsoluteFile().getParentFile().mkdirs();
-                    IOUtils.writeFile(compilationResult.getSourceMap(), unit.getSourceMapFile(), unit.getEncoding());
+                    IOUtils.writeFileIfChanged(compilationResult.getSourceMap(), unit.getSourceMapFile(), unit.getEncoding());
                 }
-                updateImportsAndCache(unit, compilationResult.getImports());
+                updateImportsAndCache(unit, compilationResult.getImports(), start);
                 logger.info("compilation of less {} finished in {} millis", unit, System.currentTimeMillis() - start);
                 return true;
             } catch (LessParseException e) {
@@ -204,53 +311,151 @@ public class CompilationTask {
         return false;
     }
 
-    private boolean isDirty(CompilationUnit unit) {
+    private CompilationDetails compile(CompilationUnit unit, String sourceMapFileName, long start) throws IOException {
+        String source = unit.getSourceAsString();
+        OutputCacheEntries entries = getOutputCacheEntries();
+        if (entries == null) {
+            return lessCompiler.compileWithDetails(source, unit.getResourceReader(), unit.getOptions(), unit.getSourceLocation(), unit.getDestination().getPath(), sourceMapFileName);
+        }
+        String manifestKey = entries.manifestKey(unit, source, sourceMapFileName);
+        CompilationDetails result = entries.get(unit, manifestKey);
+        if (result != null) {
+            logger.info("restored {} from output cache", unit);
+            return result;
+        }
+        result = lessCompiler.compileWithDetails(source, unit.getResourceReader(), unit.getOptions(), unit.getSourceLocation(), unit.getDestination().getPath(), sourceMapFileName);
+        entries.put(unit, manifestKey, result, start);
+        return result;
+    }
+
+    private synchronized OutputCacheEntries getOutputCacheEntries() {
+        if (outputCacheEntries == null && outputCache != null) {
+            outputCacheEntries = new OutputCacheEntries(outputCache, compilerId);
+        }
+        return outputCacheEntries;
+    }
+
+    private boolean isDirty(CompilationUnit unit) throws IOException {
         CompilationUnit cachedUnit = readFromCache(unit);
-        return cachedUnit == null || !unit.isEquivalent(cachedUnit) || cachedUnit.isDirty();
+        if (cachedUnit == null || !unit.isEquivalent(cachedUnit)) {
+            return true;
+        }
+        if (!cachedUnit.isDirty()) {
+            return false;
+        }
+        //the timestamps are only a pre-filter when content digests are used
+        return !contentDigests || !getUnitCache().isUnchanged(unit);
     }
 
     protected CompilationUnit readFromCache(CompilationUnit unit) {
-        File cacheFile = getCacheFile(unit);
-        if (cacheFile.canRead()) {
-            try {
-                return (CompilationUnit) new ObjectInputStream(new FileInputStream(cacheFile)).readObject();
-            } catch (Exception e) {
-                logger.warn("Could not read cached compilationUnit", e);
-            }
-        }
-        return null;
+        return getUnitCache().get(unit);
     }
 
-    private void updateImportsAndCache(CompilationUnit unit, List<String> imports) throws IOException {
+    private void updateImportsAndCache(CompilationUnit unit, List<String> imports, long compilationStart) throws IOException {
         unit.setImports(imports);
-        cache(unit);
+        if (contentDigests) {
+            try {
+                getUnitCache().putWithContentDigests(unit, compilationStart);
+            } catch (IOException e) {
+                logger.error("Could not cache compilationUnit", e);
+            }
+        } else {
+            cache(unit);
+        }
     }
 
-    private File getCacheFile(CompilationUnit unit) {
-        File dir = new File(cacheDir, Long.toHexString(customJavaScriptHashCode));
-        return new File(dir, Long.toHexString(unit.hashCode()));
+    /**
+     * @return the cache for the compilation units, it is created when it is used for the first time
+     */
+    public synchronized CompilationUnitCache getUnitCache() {
+        if (unitCache == null) {
+            unitCache = new CompilationUnitCache(new File(cacheDir, Long.toHexString(customJavaScriptHashCode) + ".cache"), memoryMappedCache);
+        }
+        return unitCache;
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     private void cache(CompilationUnit unit) {
         try {
-            File file = getCacheFile(unit);
-            file.getParentFile().mkdirs();
-            ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(file));
-            os.writeObject(unit);
-            os.flush();
-            os.close();
+            getUnitCache().put(unit);
         } catch (IOException e) {
             logger.error("Could not cache compilationUnit", e);
         }
     }
 
-    public File getCacheDir() {
+    /**
+     * Remove the units that were not used during the cache max age from the cache, and delete the cache files of other
+     * custom JavaScript that were not used during the cache max age. This is done automatically by {@link #execute()}
+     * at most once per hour.
+     *
+     * @return the number of removed units and cache files
+     */
+    public int evictCache() {
+        if (cacheMaxAge <= 0) {
+            return 0;
+        }
+        int removed = getUnitCache().evict(cacheMaxAge);
+        return removed + CompilationUnitCache.evictCacheFiles(getCacheDir(), cacheMaxAge);
+    }
+
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @param cacheMaxAge the time in milliseconds after which unused units are removed from the cache,
+     *                    0 to never remove them. Default: 30 days
+     */
+    public void setCacheMaxAge(long cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
+    public synchronized File getCacheDir() {
         return cacheDir;
     }
 
-    public void setCacheDir(File cacheDir) {
+    public synchronized void setCacheDir(File cacheDir) {
         this.cacheDir = cacheDir;
+        unitCache = null;
+    }
+
+    public synchronized OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    /**
+     * @param outputCache cache for sharing the results of compilations between builds, or null (the default) to always compile dirty units.
+     *                    The custom JavaScript is part of the key, but the version of an external lessc executable is not.
+     */
+    public synchronized void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+        outputCacheEntries = null;
+    }
+
+    public boolean isContentDigests() {
+        return contentDigests;
+    }
+
+    /**
+     * When content digests are enabled, the digests of the source and the imports are cached after a compilation.
+     * A unit is only compiled again when the content of a file changed, not when only its timestamp changed
+     * (f.i. after a checkout in a version control system). The timestamps are used to detect which files have to be read.
+     *
+     * @param contentDigests true to enable content digests. Default: false
+     */
+    public void setContentDigests(boolean contentDigests) {
+        this.contentDigests = contentDigests;
+    }
+
+    public synchronized boolean isMemoryMappedCache() {
+        return memoryMappedCache;
+    }
+
+    /**
+     * @param memoryMappedCache true to map the cache file into memory when it is read. Default: false
+     */
+    public synchronized void setMemoryMappedCache(boolean memoryMappedCache) {
+        this.memoryMappedCache = memoryMappedCache;
+        unitCache = null;
     }
 
     public LessCompiler getLessCompiler() {
@@ -269,6 +474,18 @@ public class CompilationTask {
         this.compilationUnits = compilationUnits;
     }
 
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * @param executorService ExecutorService for compiling the units in parallel, or null (the default) to compile them one by one.
+     *                        The executorService is not shut down by this CompilationTask.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
     public CompilationListener getCompilationListener() {
         return compilationListener;
     }
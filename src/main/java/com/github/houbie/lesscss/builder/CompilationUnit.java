@@ -47,6 +47,7 @@ public class CompilationUnit implements Serializable {
     private List<String> imports = new ArrayList<String>();
     private String encoding;
     private long exceptionTimestamp;
+    private long compilationTimestamp;
 
     /**
      * Constructs a new CompilationUnit with default compilation options. Imports, if any, are searched in the directory containing the source.
@@ -103,11 +104,30 @@ public class CompilationUnit implements Serializable {
         this.sourceMapFile = sourceMapFile;
     }
 
+    /**
+     * @return the time of the last compilation that failed with a parse exception, 0 if there is none
+     */
+    public long getExceptionTimestamp() {
+        return exceptionTimestamp;
+    }
+
     public void setExceptionTimestamp(long timestamp) {
         this.exceptionTimestamp = timestamp;
     }
 
 
+    /**
+     * @return the start time of the last compilation whose result was identical to the existing destination, so that
+     * the destination was not written, 0 if the destination was written
+     */
+    public long getCompilationTimestamp() {
+        return compilationTimestamp;
+    }
+
+    public void setCompilationTimestamp(long timestamp) {
+        this.compilationTimestamp = timestamp;
+    }
+
     /**
      * @return true if the source or one or more imported sources are newer then the destination
      */
@@ -115,7 +135,7 @@ public class CompilationUnit implements Serializable {
         if (!destination.exists() && exceptionTimestamp == 0) {
             return true;
         }
-        long refTimeStamp = destination.exists() ? Math.max(destination.lastModified(), exceptionTimestamp) : exceptionTimestamp;
+        long refTimeStamp = destination.exists() ? Math.max(Math.max(destination.lastModified(), compilationTimestamp), exceptionTimestamp) : exceptionTimestamp;
         if (resourceReader.lastModified(sourceLocation) > refTimeStamp) {
             return true;
         }
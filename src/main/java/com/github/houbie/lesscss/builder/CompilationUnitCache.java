@@ -0,0 +1,725 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.utils.DigestUtils;
+import com.github.houbie.lesscss.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Cache for the state of CompilationUnit's (the imports and the timestamp of the last parse exception), stored in a single file.
+ * <p/>
+ * The file starts with a header (magic number and format version), followed by records that are only appended:
+ * the length of the record, the record and a CRC32 checksum. A record contains a SHA-256 digest of the unit
+ * (source, destination, source map, encoding, options and ResourceReader), the exception timestamp, the time at which
+ * the unit was last used, the imports and optionally the timestamp and the SHA-256 digest of the content of the source
+ * and the imports (see {@link #isUnchanged(CompilationUnit)}).
+ * When a unit is cached again, the new record supersedes the old one.
+ * <p/>
+ * The file is read only once into an index in memory, optionally by mapping it into memory. The mapping is released
+ * as soon as the records are read.
+ * Corrupt records at the end of the file (f.i. because a process was killed while writing) are discarded.
+ * The file is compacted when it contains more superseded than live records.
+ * Units that are not used for a while can be removed with {@link #evict(long)}.
+ * <p/>
+ * The cache remembers the key and the cached copy of every unit instance that it has seen, as long as the unit's
+ * properties do not change. So the daemon of a CompilationTask only checks the timestamps of the files after the first cycle.
+ * A unit is only written to the file when its imports, exception or compilation timestamp or content digests changed.
+ *
+ * @author Ivo Houbrechts
+ */
+public class CompilationUnitCache {
+    private static final Logger logger = LoggerFactory.getLogger(CompilationUnitCache.class);
+
+    static final int MAGIC = 0x4c455353; //"LESS"
+    static final int VERSION = 4;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MIN_SUPERSEDED_RECORDS_FOR_COMPACTION = 100;
+    //files that are modified within this time before a compilation might be modified during the compilation
+    private static final long TIMESTAMP_GRANULARITY = 1000;
+    private static final String FILE_EXTENSION = ".cache";
+    private static final String HASH_PATTERN = "[0-9a-f]+";
+
+    private final File file;
+    private final boolean memoryMapped;
+    private Map<String, Record> index;
+    private int supersededRecords;
+    private long hits;
+    private long misses;
+    private final Map<CompilationUnit, UnitMemo> memos = new IdentityHashMap<CompilationUnit, UnitMemo>();
+
+    /**
+     * @param file         the cache file
+     * @param memoryMapped true to map the file into memory when it is read
+     */
+    public CompilationUnitCache(File file, boolean memoryMapped) {
+        this.file = file;
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @param unit the CompilationUnit to look up
+     * @return a copy of the unit with the cached imports and timestamps, or null if the unit is not in the cache
+     */
+    public synchronized CompilationUnit get(CompilationUnit unit) {
+        UnitMemo memo = getMemo(unit);
+        Record record = getIndex().get(memo.key);
+        if (record == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        record.lastUsed = System.currentTimeMillis();
+        if (memo.record != record) {
+            CompilationUnit cached = new CompilationUnit(unit.getSourceLocation(), unit.getDestination(), unit.getOptions(), unit.getResourceReader(), unit.getSourceMapFile());
+            cached.setEncoding(unit.getEncoding());
+            cached.setImports(record.imports);
+            cached.setExceptionTimestamp(record.exceptionTimestamp);
+            cached.setCompilationTimestamp(record.compilationTimestamp);
+            memo.record = record;
+            memo.cachedUnit = cached;
+        }
+        return memo.cachedUnit;
+    }
+
+    /**
+     * Store the imports and the timestamps of the unit.
+     *
+     * @param unit the CompilationUnit to cache
+     * @throws IOException when the cache file cannot be written
+     */
+    public void put(CompilationUnit unit) throws IOException {
+        put(unit, null);
+    }
+
+    /**
+     * Store the imports and the timestamps of the unit, together with the timestamps and the digests of the
+     * content of the source and the imports. The digests are not stored when a file may have been modified during the compilation.
+     *
+     * @param unit             the CompilationUnit to cache
+     * @param compilationStart the time at which the compilation of the unit started
+     * @throws IOException when the cache file cannot be written
+     */
+    public void putWithContentDigests(CompilationUnit unit, long compilationStart) throws IOException {
+        put(unit, readFileStates(unit, compilationStart));
+    }
+
+    private synchronized void put(CompilationUnit unit, List<FileState> files) throws IOException {
+        Record record = new Record(getMemo(unit).key, unit.getExceptionTimestamp(), unit.getCompilationTimestamp(), System.currentTimeMillis(), unit.getImports(), files);
+        Map<String, Record> records = getIndex();
+        if (record.equals(records.get(record.key))) {
+            return;
+        }
+        append(record);
+        if (records.put(record.key, record) != null) {
+            supersededRecords++;
+            if (supersededRecords >= MIN_SUPERSEDED_RECORDS_FOR_COMPACTION && supersededRecords > records.size()) {
+                compact();
+            }
+        }
+    }
+
+    private List<FileState> readFileStates(CompilationUnit unit, long compilationStart) throws IOException {
+        List<String> locations = new ArrayList<String>();
+        locations.add(unit.getSourceLocation());
+        if (unit.getImports() != null) {
+            locations.addAll(unit.getImports());
+        }
+        List<FileState> result = new ArrayList<FileState>(locations.size());
+        ResourceReader resourceReader = unit.getResourceReader();
+        for (String location : locations) {
+            long lastModified = resourceReader.lastModified(location);
+            //MIN_VALUE and MAX_VALUE are used for resources without timestamp and for resources that cannot be resolved
+            if (lastModified != Long.MIN_VALUE && lastModified != Long.MAX_VALUE && lastModified > compilationStart - TIMESTAMP_GRANULARITY) {
+                logger.debug("not storing the content digests of {} because {} was recently modified", unit, location);
+                return null;
+            }
+            String digest = DigestUtils.digest(resourceReader.read(location));
+            //the digest only belongs to the timestamp when the file was not modified while it was read
+            if (resourceReader.lastModified(location) != lastModified) {
+                logger.debug("not storing the content digests of {} because {} was modified while it was read", unit, location);
+                return null;
+            }
+            result.add(new FileState(location, lastModified, digest));
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the content of the source and the imports of a unit is the same as when the unit was cached with
+     * {@link #putWithContentDigests(CompilationUnit, long)}.
+     * Only the files whose timestamp differs from the cached timestamp are read. When their content did not change,
+     * the new timestamps are stored, so that they do not have to be read again.
+     *
+     * @param unit the CompilationUnit to check
+     * @return true if the unit was cached with content digests, its destination exists and the contents did not change
+     * @throws IOException when a file cannot be read or the cache file cannot be written
+     */
+    public boolean isUnchanged(CompilationUnit unit) throws IOException {
+        Record record;
+        synchronized (this) {
+            record = getIndex().get(getMemo(unit).key);
+        }
+        if (record == null || record.files == null || !unit.getDestination().exists()) {
+            return false;
+        }
+        ResourceReader resourceReader = unit.getResourceReader();
+        List<FileState> files = new ArrayList<FileState>(record.files.size());
+        boolean touched = false;
+        for (FileState file : record.files) {
+            long lastModified = resourceReader.lastModified(file.location);
+            if (lastModified == file.lastModified) {
+                files.add(file);
+            } else {
+                String digest = DigestUtils.digest(resourceReader.read(file.location));
+                if (digest == null ? file.digest != null : !digest.equals(file.digest)) {
+                    logger.debug("the content of {} changed", file.location);
+                    return false;
+                }
+                files.add(new FileState(file.location, lastModified, digest));
+                touched = true;
+            }
+        }
+        if (touched) {
+            logger.debug("the content of {} did not change", unit);
+            synchronized (this) {
+                if (getIndex().get(record.key) == record) {
+                    Record updated = new Record(record.key, record.exceptionTimestamp, record.compilationTimestamp, System.currentTimeMillis(), record.imports, files);
+                    append(updated);
+                    index.put(updated.key, updated);
+                    supersededRecords++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the units that are no longer used, so that they can be garbage collected.
+     *
+     * @param units the units that are still in use
+     */
+    synchronized void retainMemos(Collection<CompilationUnit> units) {
+        Set<CompilationUnit> retained = Collections.newSetFromMap(new IdentityHashMap<CompilationUnit, Boolean>());
+        retained.addAll(units);
+        memos.keySet().retainAll(retained);
+    }
+
+    /**
+     * Remove the units that were not used during maxAge milliseconds and compact the file.
+     * The time at which a unit was last used is kept in memory and only written to the file when it is more than
+     * maxAge/2 newer than the time in the file, so the file is rewritten at most once per maxAge/2 when nothing is removed.
+     *
+     * @param maxAge the maximum time in milliseconds since a unit was last used
+     * @return the number of removed units
+     */
+    public synchronized int evict(long maxAge) {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        boolean outdated = false;
+        for (Iterator<Record> records = getIndex().values().iterator(); records.hasNext(); ) {
+            Record record = records.next();
+            if (now - record.lastUsed > maxAge) {
+                records.remove();
+                removed++;
+            } else if (record.lastUsed - record.storedLastUsed > maxAge / 2) {
+                outdated = true;
+            }
+        }
+        if (removed > 0 || outdated) {
+            logger.debug("evicting {} units from cache file {}", removed, file);
+            compact();
+        }
+        return removed;
+    }
+
+    /**
+     * Rewrite the file with only the live records.
+     */
+    public synchronized void compact() {
+        Map<String, Record> records = getIndex();
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            tmp.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                writeHeader(out);
+                for (Record record : records.values()) {
+                    writeRecord(out, record);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("cannot rename " + tmp + " to " + file);
+            }
+            supersededRecords = 0;
+            for (Record record : records.values()) {
+                record.storedLastUsed = record.lastUsed;
+            }
+            logger.debug("compacted cache file {}", file);
+        } catch (IOException e) {
+            logger.warn("Could not compact cache file " + file, e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the number of cached units
+     */
+    public synchronized int getEntryCount() {
+        return getIndex().size();
+    }
+
+    /**
+     * @return the number of units, the size of the file and the hits and misses of {@link #get(CompilationUnit)}
+     */
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(getIndex().size(), file.length(), hits, misses);
+    }
+
+    /**
+     * @param directory a cache directory
+     * @return the cache files in the directory (one per custom JavaScript, see {@link CompilationTask#getUnitCache()})
+     */
+    public static File[] listCacheFiles(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().matches(HASH_PATTERN + "\\" + FILE_EXTENSION);
+            }
+        });
+        return (files != null) ? files : new File[0];
+    }
+
+    /**
+     * Older versions cached every unit in a separate file: &lt;directory&gt;/&lt;custom JavaScript hash&gt;/&lt;unit hash&gt;.
+     * These files are no longer read, but they are evicted and counted.
+     *
+     * @param directory a cache directory
+     * @return the directories of the legacy cache layout in the directory
+     */
+    public static File[] listLegacyCacheDirectories(File directory) {
+        File[] directories = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().matches(HASH_PATTERN);
+            }
+        });
+        return (directories != null) ? directories : new File[0];
+    }
+
+    /**
+     * @param legacyDirectory a directory of the legacy cache layout (see {@link #listLegacyCacheDirectories(File)})
+     * @return the number of cached units and their total size
+     */
+    public static CacheStatistics getLegacyStatistics(File legacyDirectory) {
+        int entryCount = 0;
+        long size = 0;
+        for (File file : listLegacyCacheFiles(legacyDirectory)) {
+            entryCount++;
+            size += file.length();
+        }
+        return new CacheStatistics(entryCount, size, 0, 0);
+    }
+
+    private static File[] listLegacyCacheFiles(File legacyDirectory) {
+        File[] files = legacyDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().matches(HASH_PATTERN);
+            }
+        });
+        return (files != null) ? files : new File[0];
+    }
+
+    /**
+     * Delete the cache files in a directory that were not modified during maxAge milliseconds.
+     * A file that is in use is rewritten by {@link #evict(long)} at least once per maxAge/2.
+     * The files of the legacy cache layout (see {@link #listLegacyCacheDirectories(File)}) are deleted in the same way,
+     * together with their directory when it becomes empty.
+     *
+     * @param directory the cache directory
+     * @param maxAge    the maximum time in milliseconds since a cache file was modified
+     * @return the number of deleted files
+     */
+    public static int evictCacheFiles(File directory, long maxAge) {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (File cacheFile : listCacheFiles(directory)) {
+            if (now - cacheFile.lastModified() > maxAge && cacheFile.delete()) {
+                logger.debug("deleted unused cache file {}", cacheFile);
+                removed++;
+            }
+        }
+        for (File legacyDirectory : listLegacyCacheDirectories(directory)) {
+            for (File cacheFile : listLegacyCacheFiles(legacyDirectory)) {
+                if (now - cacheFile.lastModified() > maxAge && cacheFile.delete()) {
+                    removed++;
+                }
+            }
+            String[] remaining = legacyDirectory.list();
+            if (remaining != null && remaining.length == 0 && legacyDirectory.delete()) {
+                logger.debug("deleted legacy cache directory {}", legacyDirectory);
+            }
+        }
+        return removed;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    private UnitMemo getMemo(CompilationUnit unit) {
+        UnitMemo memo = memos.get(unit);
+        String properties = properties(unit);
+        if (memo == null || !memo.properties.equals(properties) || memo.resourceReader != unit.getResourceReader()) {
+            memo = new UnitMemo(properties, unit.getResourceReader(), key(unit));
+            memos.put(unit, memo);
+        }
+        return memo;
+    }
+
+    private Map<String, Record> getIndex() {
+        if (index == null) {
+            index = new HashMap<String, Record>();
+            load();
+        }
+        return index;
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        boolean corrupt = false;
+        try {
+            ByteBuffer buffer = read();
+            try {
+                if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    logger.info("ignoring cache file {} with unknown format", file);
+                    corrupt = true;
+                } else {
+                    corrupt = readRecords(buffer);
+                }
+            } finally {
+                //the records are copied into the index, and a mapping would prevent compact from replacing the file on Windows
+                if (buffer instanceof MappedByteBuffer) {
+                    IOUtils.unmap((MappedByteBuffer) buffer);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read cache file " + file, e);
+            corrupt = true;
+        }
+        logger.debug("read {} cached compilation units in {} millis", index.size(), System.currentTimeMillis() - start);
+        if (corrupt || (supersededRecords >= MIN_SUPERSEDED_RECORDS_FOR_COMPACTION && supersededRecords > index.size())) {
+            compact();
+        }
+    }
+
+    private ByteBuffer read() throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (memoryMapped) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //read until the buffer is full
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return true if the buffer contains a corrupt record
+     */
+    private boolean readRecords(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 4) {
+                return true;
+            }
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + 4) {
+                return true;
+            }
+            byte[] data = new byte[length];
+            buffer.get(data);
+            if (checksum(data) != buffer.getInt()) {
+                return true;
+            }
+            try {
+                Record record = Record.decode(data);
+                if (index.put(record.key, record) != null) {
+                    supersededRecords++;
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(Record record) throws IOException {
+        boolean newFile = !file.isFile() || file.length() == 0;
+        if (newFile) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (newFile) {
+            writeHeader(out);
+        }
+        writeRecord(out, record);
+        out.flush();
+        //a single write, so that concurrent processes do not mix up their records
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            bytes.writeTo(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        byte[] data = record.encode();
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeInt(checksum(data));
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * @return a SHA-256 digest of all the properties of the unit that are compared by {@link CompilationUnit#isEquivalent(CompilationUnit)}
+     */
+    static String key(CompilationUnit unit) {
+        MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        DigestUtils.update(messageDigest, unit.getSourceLocation());
+        DigestUtils.update(messageDigest, unit.getDestination().getAbsolutePath());
+        DigestUtils.update(messageDigest, (unit.getSourceMapFile() != null) ? unit.getSourceMapFile().getPath() : null);
+        DigestUtils.update(messageDigest, unit.getEncoding());
+        DigestUtils.update(messageDigest, unit.getOptions().toCanonicalString());
+        messageDigest.update(serialize(unit.getResourceReader()));
+        return DigestUtils.toHex(messageDigest.digest());
+    }
+
+    /**
+     * @return a string with the properties of the unit that are part of its key, except for the ResourceReader
+     */
+    private static String properties(CompilationUnit unit) {
+        return unit.getSourceLocation() + '|' + unit.getDestination().getPath() + '|' + unit.getSourceMapFile() + '|' +
+                unit.getEncoding() + '|' + unit.getOptions().toCanonicalString();
+    }
+
+    private static byte[] serialize(Object object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(object);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            //not serializable: units with the same ResourceReader class and hash code are considered equal
+            return (object.getClass().getName() + '@' + object.hashCode()).getBytes();
+        }
+    }
+
+    private static class UnitMemo {
+        private final String properties;
+        private final Object resourceReader;
+        private final String key;
+        private Record record;
+        private CompilationUnit cachedUnit;
+
+        UnitMemo(String properties, Object resourceReader, String key) {
+            this.properties = properties;
+            this.resourceReader = resourceReader;
+            this.key = key;
+        }
+    }
+
+    private static class FileState {
+        private final String location;
+        private final long lastModified;
+        private final String digest;
+
+        FileState(String location, long lastModified, String digest) {
+            this.location = location;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            FileState fileState = (FileState) o;
+
+            if (lastModified != fileState.lastModified) return false;
+            if (!location.equals(fileState.location)) return false;
+            if (digest != null ? !digest.equals(fileState.digest) : fileState.digest != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = location.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (digest != null ? digest.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static class Record {
+        private final String key;
+        private final long exceptionTimestamp;
+        private final long compilationTimestamp;
+        private final List<String> imports;
+        private final List<FileState> files;
+        //not part of equals: a record that is only used more recently is not written again
+        private long lastUsed;
+        private long storedLastUsed;
+
+        Record(String key, long exceptionTimestamp, long compilationTimestamp, long lastUsed, List<String> imports, List<FileState> files) {
+            this.key = key;
+            this.exceptionTimestamp = exceptionTimestamp;
+            this.compilationTimestamp = compilationTimestamp;
+            this.lastUsed = lastUsed;
+            this.storedLastUsed = lastUsed;
+            this.imports = (imports != null) ? new ArrayList<String>(imports) : null;
+            this.files = files;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Record record = (Record) o;
+
+            if (exceptionTimestamp != record.exceptionTimestamp) return false;
+            if (compilationTimestamp != record.compilationTimestamp) return false;
+            if (!key.equals(record.key)) return false;
+            if (imports != null ? !imports.equals(record.imports) : record.imports != null) return false;
+            if (files != null ? !files.equals(record.files) : record.files != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = key.hashCode();
+            result = 31 * result + (int) (exceptionTimestamp ^ (exceptionTimestamp >>> 32));
+            result = 31 * result + (int) (compilationTimestamp ^ (compilationTimestamp >>> 32));
+            result = 31 * result + (imports != null ? imports.hashCode() : 0);
+            result = 31 * result + (files != null ? files.hashCode() : 0);
+            return result;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            out.writeLong(exceptionTimestamp);
+            out.writeLong(compilationTimestamp);
+            out.writeLong(lastUsed);
+            if (imports == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(imports.size());
+                for (String imported : imports) {
+                    out.writeUTF(imported);
+                }
+            }
+            if (files == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(files.size());
+                for (FileState file : files) {
+                    out.writeUTF(file.location);
+                    out.writeLong(file.lastModified);
+                    out.writeBoolean(file.digest != null);
+                    if (file.digest != null) {
+                        out.writeUTF(file.digest);
+                    }
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Record decode(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            String key = in.readUTF();
+            long exceptionTimestamp = in.readLong();
+            long compilationTimestamp = in.readLong();
+            long lastUsed = in.readLong();
+            int importCount = in.readInt();
+            List<String> imports = null;
+            if (importCount >= 0) {
+                imports = new ArrayList<String>(importCount);
+                for (int i = 0; i < importCount; i++) {
+                    imports.add(in.readUTF());
+                }
+            }
+            int fileCount = in.readInt();
+            List<FileState> files = null;
+            if (fileCount >= 0) {
+                files = new ArrayList<FileState>(fileCount);
+                for (int i = 0; i < fileCount; i++) {
+                    String location = in.readUTF();
+                    long lastModified = in.readLong();
+                    files.add(new FileState(location, lastModified, in.readBoolean() ? in.readUTF() : null));
+                }
+            }
+            return new Record(key, exceptionTimestamp, compilationTimestamp, lastUsed, imports, files);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * OutputCache that stores every entry in a file in a (shared) directory, f.i. on a network drive that is used by all CI agents.
+ * <p/>
+ * Entries are written to a temporary file in the same directory that is then renamed over the existing entry, so other
+ * processes never see incomplete entries. When multiple processes write the same key, the last rename wins.
+ * <p/>
+ * The timestamp of an entry is updated when it is read (at most once per hour), so that {@link #evict(long, long)}
+ * can remove the least recently used entries.
+ *
+ * @author Ivo Houbrechts
+ */
+public class DirectoryOutputCache implements OutputCache {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryOutputCache.class);
+
+    private static final String TMP_EXTENSION = ".tmp";
+    private static final long TOUCH_INTERVAL = 60 * 60 * 1000;
+
+    private final File directory;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param directory the directory that contains the entries, it is created when necessary
+     */
+    public DirectoryOutputCache(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            countLookup(false);
+            return null;
+        }
+        FileInputStream inputStream;
+        try {
+            inputStream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            //removed by another process
+            countLookup(false);
+            return null;
+        }
+        byte[] content;
+        try {
+            content = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(inputStream);
+            in.readFully(content);
+        } finally {
+            inputStream.close();
+        }
+        countLookup(true);
+        long now = System.currentTimeMillis();
+        if (now - file.lastModified() > TOUCH_INTERVAL) {
+            file.setLastModified(now);
+        }
+        return content;
+    }
+
+    private synchronized void countLookup(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+        File tmp = File.createTempFile(key.length() > 8 ? key.substring(0, 8) : key + "___", TMP_EXTENSION, dir);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tmp);
+            try {
+                outputStream.write(content);
+            } finally {
+                outputStream.close();
+            }
+            if (!tmp.renameTo(file)) {
+                //on Windows a rename does not replace an existing file
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("cannot rename " + tmp + " to " + file);
+                }
+            }
+            logger.debug("stored {} in output cache {}", key, directory);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Remove the entries that were not used during maxAge milliseconds, and then the least recently used entries until
+     * the total size of the entries is at most maxSize. Temporary files of interrupted writes are removed after an hour.
+     * This can safely be executed while other processes use the directory.
+     *
+     * @param maxSize the maximum total size of the entries in bytes
+     * @param maxAge  the maximum time in milliseconds since an entry was last used
+     * @return the number of removed entries
+     */
+    public int evict(long maxSize, long maxAge) {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        long size = 0;
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File file : listFiles()) {
+            //the timestamps are read only once, because other processes can update them while sorting
+            Entry entry = new Entry(file);
+            if (file.getName().endsWith(TMP_EXTENSION)) {
+                if (now - entry.lastModified > TOUCH_INTERVAL) {
+                    file.delete();
+                }
+            } else if (now - entry.lastModified > maxAge) {
+                if (file.delete()) {
+                    removed++;
+                }
+            } else {
+                entries.add(entry);
+                size += entry.length;
+            }
+        }
+        if (size > maxSize) {
+            Collections.sort(entries);
+            for (Entry entry : entries) {
+                if (size <= maxSize) {
+                    break;
+                }
+                if (entry.file.delete()) {
+                    size -= entry.length;
+                    removed++;
+                }
+            }
+        }
+        logger.debug("removed {} entries from output cache {}", removed, directory);
+        return removed;
+    }
+
+    /**
+     * @return the number of entries, their total size and the hits and misses of {@link #get(String)}
+     */
+    public CacheStatistics getStatistics() {
+        int entryCount = 0;
+        long size = 0;
+        for (File file : listFiles()) {
+            if (!file.getName().endsWith(TMP_EXTENSION)) {
+                entryCount++;
+                size += file.length();
+            }
+        }
+        synchronized (this) {
+            return new CacheStatistics(entryCount, size, hits, misses);
+        }
+    }
+
+    private List<File> listFiles() {
+        List<File> result = new ArrayList<File>();
+        File[] subDirs = directory.listFiles();
+        if (subDirs != null) {
+            for (File subDir : subDirs) {
+                File[] files = subDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.isFile()) {
+                            result.add(file);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The entries are spread over sub directories with the last 2 characters of the key as name.
+     */
+    File getFile(String key) {
+        String subDir = key.length() > 2 ? key.substring(key.length() - 2) : "_";
+        return new File(new File(directory, subDir), key);
+    }
+
+    /**
+     * @return the directory that contains the entries
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        Entry(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return (lastModified < other.lastModified) ? -1 : ((lastModified == other.lastModified) ? 0 : 1);
+        }
+    }
+}
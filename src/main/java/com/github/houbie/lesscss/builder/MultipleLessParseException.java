@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+import com.github.houbie.lesscss.LessParseException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LessParseException that combines the parse exceptions of all the compilation units that failed during a parallel
+ * execution of a {@link CompilationTask}.
+ * It also holds the compilation units that did compile successfully during that execution.
+ */
+public class MultipleLessParseException extends LessParseException {
+    private final List<LessParseException> parseExceptions;
+    private final Collection<CompilationUnit> compiledUnits;
+
+    public MultipleLessParseException(List<LessParseException> parseExceptions, Collection<CompilationUnit> compiledUnits) {
+        super(buildMessage(parseExceptions));
+        this.parseExceptions = Collections.unmodifiableList(parseExceptions);
+        this.compiledUnits = Collections.unmodifiableCollection(compiledUnits);
+    }
+
+    private static String buildMessage(List<LessParseException> parseExceptions) {
+        StringBuilder message = new StringBuilder();
+        for (LessParseException parseException : parseExceptions) {
+            if (message.length() > 0) {
+                message.append('\n');
+            }
+            message.append(parseException.getMessage());
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return the parse exceptions of the compilation units that failed
+     */
+    public List<LessParseException> getParseExceptions() {
+        return parseExceptions;
+    }
+
+    /**
+     * @return the compilation units that were dirty and got compiled successfully
+     */
+    public Collection<CompilationUnit> getCompiledUnits() {
+        return compiledUnits;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+import java.io.IOException;
+
+/**
+ * Storage for the results of compilations that can be shared between machines (f.i. CI agents).
+ * The keys are digests of the inputs of a compilation (see {@link CompilationTask#setOutputCache(OutputCache)}).
+ * The content of an output entry never changes, but a manifest entry is replaced when the imports of a source change.
+ *
+ * @author Ivo Houbrechts
+ */
+public interface OutputCache {
+    /**
+     * @param key the key of the entry, consisting of lower case letters, digits and dashes
+     * @return the content of the entry, or null if there is no entry for the key
+     * @throws IOException if the entry cannot be read
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Store an entry, replacing the existing entry with the same key. Implementations have to store the content
+     * atomically: readers must never see incomplete content, also not when multiple processes store the same key at
+     * the same time.
+     *
+     * @param key     the key of the entry, consisting of lower case letters, digits and dashes
+     * @param content the content of the entry
+     * @throws IOException if the entry cannot be written
+     */
+    void put(String key, byte[] content) throws IOException;
+}
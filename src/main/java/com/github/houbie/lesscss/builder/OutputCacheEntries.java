@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder;
+
+import com.github.houbie.lesscss.Options;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.utils.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
+
+/**
+ * Reads and writes the results of compilations in an OutputCache.
+ * <p/>
+ * The imports of a source are only known after compilation, so a result is looked up in 2 steps:
+ * <ol>
+ * <li>the manifest entry, with a digest of the source, the source location, the options and the compiler as key, contains the imports</li>
+ * <li>the output entry, with a digest of the manifest key and the content of the imports as key, contains the CSS,
+ * the source map and the imports</li>
+ * </ol>
+ * The imports can change without changing the source, f.i. when an imported file imports other files. Therefore the
+ * manifest contains the import lists of the last {@link #MAX_IMPORT_LISTS} different import graphs, most recent first,
+ * and every list is tried until an output entry is found.
+ *
+ * @author Ivo Houbrechts
+ */
+class OutputCacheEntries {
+    private static final Logger logger = LoggerFactory.getLogger(OutputCacheEntries.class);
+
+    private static final String MANIFEST_PREFIX = "m-";
+    private static final String OUTPUT_PREFIX = "o-";
+    private static final int MAGIC = 0x4c455353; //"LESS"
+    private static final int VERSION = 2;
+    static final int MAX_IMPORT_LISTS = 8;
+    //files that are modified within this time before a compilation might be modified during the compilation
+    private static final long TIMESTAMP_GRANULARITY = 1000;
+
+    private final OutputCache outputCache;
+    private final String compilerId;
+
+    /**
+     * @param outputCache the cache
+     * @param compilerId  identifies the compiler, the compiler version and the custom JavaScript
+     */
+    OutputCacheEntries(OutputCache outputCache, String compilerId) {
+        this.outputCache = outputCache;
+        this.compilerId = compilerId;
+    }
+
+    /**
+     * The destination and the source map file only end up in the output when a source map is generated, so that
+     * builds in different directories (f.i. on different CI nodes) share the results of compilations without source map.
+     *
+     * @return the manifest key for the compilation of the unit
+     */
+    String manifestKey(CompilationUnit unit, String source, String sourceMapFileName) {
+        MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        DigestUtils.update(messageDigest, compilerId);
+        DigestUtils.update(messageDigest, source);
+        DigestUtils.update(messageDigest, unit.getSourceLocation());
+        Options options = unit.getOptions();
+        if (options.isSourceMap() || options.isSourceMapMapInline()) {
+            //the generated source map refers to the destination and the source map file as they are passed to the compiler
+            DigestUtils.update(messageDigest, unit.getDestination().getPath());
+            DigestUtils.update(messageDigest, options.isSourceMap() ? sourceMapFileName : null);
+        }
+        DigestUtils.update(messageDigest, options.toCanonicalString());
+        return MANIFEST_PREFIX + DigestUtils.toHex(messageDigest.digest());
+    }
+
+    /**
+     * @return the cached result, or null if there is none
+     */
+    CompilationDetails get(CompilationUnit unit, String manifestKey) {
+        try {
+            byte[] manifest = outputCache.get(manifestKey);
+            if (manifest == null) {
+                return null;
+            }
+            byte[] output = null;
+            for (List<String> imports : readManifest(manifest)) {
+                output = outputCache.get(outputKey(manifestKey, imports, unit.getResourceReader()));
+                if (output != null) {
+                    break;
+                }
+            }
+            if (output == null) {
+                return null;
+            }
+            DataInputStream in = open(output);
+            CompilationDetails result = new CompilationDetails(readString(in), readString(in));
+            result.setImports(readStrings(in));
+            return result;
+        } catch (IOException e) {
+            logger.warn("Could not read the compilation result of " + unit + " from the output cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the result of a compilation. Nothing is stored when one of the files may have been modified during the compilation.
+     */
+    void put(CompilationUnit unit, String manifestKey, CompilationDetails details, long compilationStart) {
+        try {
+            ResourceReader resourceReader = unit.getResourceReader();
+            List<String> files = new ArrayList<String>(details.getImports());
+            files.add(unit.getSourceLocation());
+            for (String file : files) {
+                long lastModified = resourceReader.lastModified(file);
+                //MIN_VALUE and MAX_VALUE are used for resources without timestamp and for resources that cannot be resolved
+                if (lastModified != Long.MIN_VALUE && lastModified != Long.MAX_VALUE && lastModified > compilationStart - TIMESTAMP_GRANULARITY) {
+                    logger.debug("not storing {} in the output cache because {} was recently modified", unit, file);
+                    return;
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * details.getResult().length() + 1024);
+            DataOutputStream out = create(bytes);
+            writeString(out, details.getResult());
+            writeString(out, details.getSourceMap());
+            writeStrings(out, details.getImports());
+            out.flush();
+            outputCache.put(outputKey(manifestKey, details.getImports(), resourceReader), bytes.toByteArray());
+
+            List<List<String>> importLists = getImportLists(manifestKey);
+            if (!importLists.isEmpty() && importLists.get(0).equals(details.getImports())) {
+                return;
+            }
+            importLists.remove(details.getImports());
+            importLists.add(0, details.getImports());
+            bytes = new ByteArrayOutputStream(1024);
+            out = create(bytes);
+            int count = Math.min(importLists.size(), MAX_IMPORT_LISTS);
+            out.writeInt(count);
+            for (List<String> imports : importLists.subList(0, count)) {
+                writeStrings(out, imports);
+            }
+            out.flush();
+            outputCache.put(manifestKey, bytes.toByteArray());
+        } catch (IOException e) {
+            logger.warn("Could not store the compilation result of " + unit + " in the output cache", e);
+        }
+    }
+
+    private String outputKey(String manifestKey, List<String> imports, ResourceReader resourceReader) throws IOException {
+        MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        DigestUtils.update(messageDigest, manifestKey);
+        for (String imported : imports) {
+            DigestUtils.update(messageDigest, imported);
+            DigestUtils.update(messageDigest, DigestUtils.digest(resourceReader.read(imported)));
+        }
+        return OUTPUT_PREFIX + DigestUtils.toHex(messageDigest.digest());
+    }
+
+    /**
+     * @return the import lists of the existing manifest, or an empty list when there is no manifest in a known format
+     */
+    private List<List<String>> getImportLists(String manifestKey) {
+        try {
+            byte[] manifest = outputCache.get(manifestKey);
+            if (manifest != null) {
+                return readManifest(manifest);
+            }
+        } catch (IOException e) {
+            logger.debug("replacing unreadable manifest " + manifestKey, e);
+        }
+        return new ArrayList<List<String>>();
+    }
+
+    private static List<List<String>> readManifest(byte[] manifest) throws IOException {
+        DataInputStream in = open(manifest);
+        int size = in.readInt();
+        List<List<String>> result = new ArrayList<List<String>>(Math.max(size, 0));
+        for (int i = 0; i < size; i++) {
+            result.add(readStrings(in));
+        }
+        return result;
+    }
+
+    private static DataOutputStream create(ByteArrayOutputStream bytes) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return out;
+    }
+
+    private static DataInputStream open(byte[] content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("unknown output cache format");
+        }
+        return in;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> result = new ArrayList<String>(Math.max(size, 0));
+        for (int i = 0; i < size; i++) {
+            result.add(readString(in));
+        }
+        return result;
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.houbie.lesscss.engine;
 
+import com.github.houbie.lesscss.CompilationAbortedException;
+import com.github.houbie.lesscss.CompilationTimeoutException;
 import com.github.houbie.lesscss.LessParseException;
 import com.github.houbie.lesscss.Options;
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader;
@@ -23,15 +25,27 @@ import static com.github.houbie.lesscss.utils.StringUtils.isEmpty;
 
 /**
  * LessCompilationEngine that calls a locally installed lessc via the command line
+ * <p/>
+ * When a worker command is set, the compilations are executed by a long running worker process instead of starting
+ * lessc for every compilation (see {@link #setWorkerCommand(String...)}). Otherwise compilations with a
+ * {@link FileSystemResourceReader} start lessc-worker.js for a single compilation, because lessc cannot print the css
+ * and the imports in one run.
+ * <p/>
+ * Processes that do not finish within the timeout are killed, and a {@link CompilationTimeoutException} is thrown.
  */
 public class CommandLineLesscCompilationEngine implements LessCompilationEngine {
 
     public static final String LESSC = "lessc";
+    public static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
 
     private static final Logger logger = LoggerFactory.getLogger(CommandLineLesscCompilationEngine.class);
 
 
     private String executable;
+    private String[] workerCommand;
+    private LesscWorker worker;
+    private long timeout = DEFAULT_TIMEOUT;
+    private final ProcessMetrics metrics = new ProcessMetrics();
 
     public CommandLineLesscCompilationEngine() {
         this(null);
@@ -54,15 +68,28 @@ public class CommandLineLesscCompilationEngine implements LessCompilationEngine
         String sourceMapFilename = compilationOptions.getSourceMapFilename();
 
         try {
-            if (!compilationOptions.getOptions().isDependenciesOnly() && resourceReader != null) {
-                //hack to force reading of imported less files to make sure they can be cached
-                forceReadImports(less, compilationOptions, fileSystemResourceReader, resourceReader);
+            if (workerCommand != null) {
+                return compileWithWorker(getWorker(), less, compilationOptions, fileSystemResourceReader, resourceReader);
+            }
+            if (fileSystemResourceReader != null) {
+                //lessc cannot print the css and the imports in one run: lessc-worker.js returns both, including the
+                // imports that produce no css (like mixins and reference imports)
+                LesscWorker oneShotWorker = new LesscWorker(buildOneShotWorkerCommand(), metrics);
+                try {
+                    return compileWithWorker(oneShotWorker, less, compilationOptions, fileSystemResourceReader, resourceReader);
+                } finally {
+                    oneShotWorker.destroy();
+                }
             }
             String[] command = buildCommand(compilationOptions, fileSystemResourceReader, compilationOptions.getOptions().isDependenciesOnly());
-            String css = executeCommandline(less, command);
-            return new CompilationDetails(css, getSourceMap(sourceMapFilename));
+            return new CompilationDetails(executeCommandline(less, command), getSourceMap(sourceMapFilename));
         } catch (LessParseException e) {
             throw e;
+        } catch (CompilationAbortedException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompilationAbortedException("lessc was interrupted");
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -84,12 +111,131 @@ public class CommandLineLesscCompilationEngine implements LessCompilationEngine
         return null;
     }
 
-    private void forceReadImports(String less, CompilationOptions compilationOptions, FileSystemResourceReader resourceReader, ResourceReader originalResourceReader) throws IOException, InterruptedException {
-        String[] command = buildCommand(compilationOptions, resourceReader, true);
-        String[] imports = executeCommandline(less, command).split("\\s+");
-        for (int i = 1; i < imports.length; i++) {//first line contains source filename
-            originalResourceReader.read(getRelativePath(imports[i], resourceReader));
+    private CompilationDetails compileWithWorker(LesscWorker worker, String less, CompilationOptions compilationOptions, FileSystemResourceReader fileSystemResourceReader, ResourceReader originalResourceReader) throws IOException {
+        List<String> response = worker.execute(buildWorkerRequest(less, compilationOptions, fileSystemResourceReader), timeout);
+        if ("error".equals(response.get(0))) {
+            throw new LessParseException(response.get(1));
+        }
+        if (fileSystemResourceReader != null) {
+            //read the imported less files to make sure they can be cached
+            for (String dependency : response.subList(3, response.size())) {
+                originalResourceReader.read(getRelativePath(dependency, fileSystemResourceReader));
+            }
+        }
+        return new CompilationDetails(response.get(1), response.get(2));
+    }
+
+    private synchronized LesscWorker getWorker() {
+        if (worker == null) {
+            worker = new LesscWorker(workerCommand, metrics);
+        }
+        return worker;
+    }
+
+    /**
+     * Build the command that runs lessc-worker.js for a single compilation. The worker loads the less module of the
+     * lessc executable, when it can be found.
+     */
+    protected String[] buildOneShotWorkerCommand() {
+        List<String> command = new ArrayList<String>(Arrays.asList(LesscWorker.getDefaultCommand()));
+        File lessModule = findLessModule(executable);
+        if (lessModule != null) {
+            command.add(lessModule.getAbsolutePath());
         }
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * @return the less module directory of a lessc executable (&lt;module&gt;/bin/lessc, or a link to it), or null
+     */
+    static File findLessModule(String executable) {
+        File lessc = new File(executable);
+        if (!lessc.isAbsolute() && lessc.getParent() == null) {
+            lessc = findOnPath(executable);
+        }
+        if (lessc == null || !lessc.isFile()) {
+            return null;
+        }
+        try {
+            File binDir = lessc.getCanonicalFile().getParentFile();
+            File module = binDir != null ? binDir.getParentFile() : null;
+            if (module != null && new File(module, "package.json").isFile()) {
+                return module;
+            }
+        } catch (IOException e) {
+            logger.debug("Could not resolve " + executable, e);
+        }
+        return null;
+    }
+
+    private static File findOnPath(String executable) {
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                File file = new File(dir, executable);
+                if (file.isFile()) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build a request for lessc-worker.js: the less source followed by name/value pairs of less options.
+     */
+    protected List<String> buildWorkerRequest(String less, CompilationOptions compilationOptions, FileSystemResourceReader resourceReader) {
+        Options options = compilationOptions.getOptions();
+        List<String> request = new ArrayList<String>();
+        request.add(less);
+        if (!isEmpty(compilationOptions.getSourceFilename())) {
+            addOption(request, "filename", compilationOptions.getSourceFilename());
+        }
+        if (resourceReader != null) {
+            for (File dir : resourceReader.getBaseDirs()) {
+                addOption(request, "path", dir.getAbsolutePath());
+            }
+        }
+        addOption(request, "ieCompat", options.isIeCompat());
+        addOption(request, "javascriptEnabled", options.isJavascriptEnabled());
+        addOption(request, "strictImports", options.isStrictImports());
+        addOption(request, "compress", options.isCompress());
+        addOption(request, "cleancss", options.isMinify());
+        addOption(request, "dependenciesOnly", options.isDependenciesOnly());
+        addOption(request, "relativeUrls", options.isRelativeUrls());
+        addOption(request, "strictMath", options.isStrictMath());
+        addOption(request, "strictUnits", options.isStrictUnits());
+        addOption(request, "optimization", options.getOptimizationLevel());
+        if (!isEmpty(options.getRootpath())) addOption(request, "rootpath", options.getRootpath());
+        if (options.getDumpLineNumbers() != Options.LineNumbersOutput.NONE) {
+            addOption(request, "dumpLineNumbers", options.getDumpLineNumbers().getOptionString());
+        }
+        if (options.isSourceMap() || options.isSourceMapMapInline()) {
+            addOption(request, "sourceMap", true);
+            if (!isEmpty(compilationOptions.getSourceMapFilename())) {
+                addOption(request, "sourceMapFilename", compilationOptions.getSourceMapFilename());
+            }
+            if (!isEmpty(compilationOptions.getDestinationFilename())) {
+                addOption(request, "sourceMapOutputFilename", compilationOptions.getDestinationFilename());
+            }
+            if (!isEmpty(options.getSourceMapRootpath())) addOption(request, "sourceMapRootpath", options.getSourceMapRootpath());
+            if (!isEmpty(options.getSourceMapBasepath())) addOption(request, "sourceMapBasepath", options.getSourceMapBasepath());
+            if (!isEmpty(options.getSourceMapURL())) addOption(request, "sourceMapURL", options.getSourceMapURL());
+            addOption(request, "outputSourceFiles", options.isSourceMapLessInline());
+            addOption(request, "sourceMapFileInline", options.isSourceMapMapInline());
+        }
+        for (Map.Entry<String, String> globalVar : options.getGlobalVars().entrySet()) {
+            addOption(request, "globalVars." + globalVar.getKey(), globalVar.getValue());
+        }
+        for (Map.Entry<String, String> modifyVar : options.getModifyVars().entrySet()) {
+            addOption(request, "modifyVars." + modifyVar.getKey(), modifyVar.getValue());
+        }
+        return request;
+    }
+
+    private void addOption(List<String> request, String name, Object value) {
+        request.add(name);
+        request.add(String.valueOf(value));
     }
 
     private String getRelativePath(String path, FileSystemResourceReader fileSystemResourceReader) {
@@ -104,21 +250,11 @@ public class CommandLineLesscCompilationEngine implements LessCompilationEngine
     }
 
     private String executeCommandline(String less, String[] command) throws IOException, InterruptedException {
-        String result, errors;
-        logger.info("Executing commandline {}", Arrays.deepToString(command));
-        Process process = Runtime.getRuntime().exec(command);
-        pipe(less, process);
-        result = IOUtils.read(process.getInputStream());
-        errors = IOUtils.read(process.getErrorStream());
-        process.waitFor();
-        if (process.exitValue() == 0) {
-            return result;
+        ProcessRunner.Result result = new ProcessRunner(timeout, metrics).run(command, less);
+        if (result.getExitValue() == 0) {
+            return result.getOutput();
         }
-        throw new LessParseException(errors);
-    }
-
-    private void pipe(String source, Process process) throws IOException {
-        IOUtils.write(source, process.getOutputStream(), "UTF-8");
+        throw new LessParseException(result.getErrors());
     }
 
     protected String[] buildCommand(CompilationOptions compilationOptions, FileSystemResourceReader resourceReader, boolean dependeciesOnly) {
@@ -210,4 +346,54 @@ public class CommandLineLesscCompilationEngine implements LessCompilationEngine
     public String getExecutable() {
         return executable;
     }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout maximum duration of a compilation in milliseconds, 0 means no timeout. Default: 5 minutes
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the cumulative metrics of the lessc and worker processes
+     */
+    public ProcessMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the command that starts lessc-worker.js with node.js
+     */
+    public static String[] getDefaultWorkerCommand() {
+        return LesscWorker.getDefaultCommand();
+    }
+
+    public String[] getWorkerCommand() {
+        return workerCommand;
+    }
+
+    /**
+     * Execute the compilations in a long running worker process instead of starting lessc for every compilation.
+     * The worker process is started on the first compilation and restarted when it dies.
+     *
+     * @param workerCommand the command that starts the worker, f.i. {@link #getDefaultWorkerCommand()}, or null to start lessc for every compilation
+     */
+    public synchronized void setWorkerCommand(String... workerCommand) {
+        stopWorker();
+        this.workerCommand = workerCommand;
+    }
+
+    /**
+     * Stop the worker process, if any. It will be restarted by the next compilation.
+     */
+    public synchronized void stopWorker() {
+        if (worker != null) {
+            worker.destroy();
+            worker = null;
+        }
+    }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+/**
+ * Interface for a LessCompilationEngine that can execute multiple compilations at the same time.
+ * {@link com.github.houbie.lesscss.LessCompilerImpl} only skips the serialization of compilations when {@link #isConcurrent()} returns true.
+ */
+public interface ConcurrentLessCompilationEngine extends LessCompilationEngine {
+    /**
+     * @return true if this engine instance can execute multiple compilations at the same time
+     */
+    boolean isConcurrent();
+}
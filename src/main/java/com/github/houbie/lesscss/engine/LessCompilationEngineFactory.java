@@ -1,18 +1,42 @@
 package com.github.houbie.lesscss.engine;
 
+import com.github.houbie.lesscss.Options;
+import com.github.houbie.lesscss.resourcereader.ClasspathResourceReader;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
 /**
  * LessCompilationEngine factory that tries to instantiate the requested engine, but falls back to the RhinoLessCompilationEngine
+ * <p/>
+ * When warm-up is enabled (see {@link #setWarmUpEnabled(boolean)}), the engines are wrapped in a {@link WarmUpLessCompilationEngine}
+ * that compiles a corpus of LESS files a few times in a background thread, as soon as the engine is initialized.
+ * This loads the classes and primes the JIT compiler and the scope of the engine, so that the first real compilation does not
+ * suffer from a latency spike. The first compilation waits until the warm-up is finished.
  */
 public class LessCompilationEngineFactory {
     public static final String RHINO = "rhino";
+    public static final String RHINO_SHARED_SCOPE = "rhino-shared";
     public static final String NASHORN = "nashorn";
     public static final String COMMAND_LINE = "commandline";
 
+    public static final String DEFAULT_WARM_UP_PATH = "warmup";
+    public static final String DEFAULT_WARM_UP_FILE = "warmup.less";
+    public static final int DEFAULT_WARM_UP_ITERATIONS = 5;
+
     private static Logger logger = LoggerFactory.getLogger(LessCompilationEngineFactory.class);
 
+    private static boolean warmUpEnabled;
+    private static ResourceReader warmUpResourceReader = new ClasspathResourceReader(DEFAULT_WARM_UP_PATH);
+    private static String[] warmUpFiles = {DEFAULT_WARM_UP_FILE};
+    private static int warmUpIterations = DEFAULT_WARM_UP_ITERATIONS;
+    private static final Map<String, Future<?>> warmUps = new HashMap<String, Future<?>>();
+    private static ExecutorService warmUpExecutor;
+
     /**
      * Create the default engine.
      *
@@ -20,13 +44,13 @@ public class LessCompilationEngineFactory {
      */
     public static LessCompilationEngine create() {
         logger.info("creating default Rhino less compilation engine");
-        return new RhinoLessCompilationEngine();
+        return warmUpIfEnabled(new RhinoLessCompilationEngine(), RHINO);
     }
 
     /**
      * Create a new engine of the specified type if available, or a default engine.
      *
-     * @param type The engine type. "rhino", "nashorn" and "commandline" are supported out of the box.
+     * @param type The engine type. "rhino", "rhino-shared", "nashorn" and "commandline" are supported out of the box.
      * @return create(type, null)
      */
     public static LessCompilationEngine create(String type) {
@@ -37,9 +61,9 @@ public class LessCompilationEngineFactory {
     /**
      * Create a new engine of the specified type if available, or a default engine.
      *
-     * @param type       The engine type. "rhino", "nashorn" and "commandline" are supported out of the box.
+     * @param type       The engine type. "rhino", "rhino-shared", "nashorn" and "commandline" are supported out of the box.
      * @param executable The executable in case of commandline engine
-     * @return A new RhinoLessCompilationEngine
+     * @return A new engine, wrapped in a WarmUpLessCompilationEngine when warm-up is enabled
      */
     public static LessCompilationEngine create(String type, String executable) {
         if (type == null || RHINO.equals(type)) {
@@ -49,6 +73,141 @@ public class LessCompilationEngineFactory {
         if (COMMAND_LINE.equals(type)) {
             return new CommandLineLesscCompilationEngine(executable);
         }
+        return warmUpIfEnabled(newEngine(type), type);
+    }
+
+    private static LessCompilationEngine newEngine(String type) {
+        if (RHINO.equals(type)) {
+            return new RhinoLessCompilationEngine();
+        }
+        if (RHINO_SHARED_SCOPE.equals(type)) {
+            return new SharedScopeRhinoLessCompilationEngine();
+        }
         return new ScriptEngineLessCompilationEngine(type);
     }
+
+    private static LessCompilationEngine warmUpIfEnabled(LessCompilationEngine engine, String type) {
+        return isWarmUpEnabled() ? new WarmUpLessCompilationEngine(engine, type) : engine;
+    }
+
+    /**
+     * Warm up an initialized engine in a background thread, by compiling the warm-up corpus.
+     *
+     * @param engine the engine to warm up
+     * @param type   the engine type, used for logging
+     * @return a future that completes when the warm-up is finished
+     */
+    static synchronized Future<?> warmUp(final LessCompilationEngine engine, final String type) {
+        final ResourceReader resourceReader = warmUpResourceReader;
+        final String[] files = warmUpFiles.clone();
+        final int iterations = warmUpIterations;
+        return getWarmUpExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                runWarmUp(engine, type, resourceReader, files, iterations);
+            }
+        });
+    }
+
+    /**
+     * Warm up the classes and the JIT compiler for engines of the given type in a background thread, by compiling
+     * the warm-up corpus with a new engine. Engines that share their scope or compiled script (rhino-shared and nashorn)
+     * without custom JavaScript are warmed up as well.
+     * An engine type is warmed up only once; subsequent calls return the same future.
+     *
+     * @param type The engine type, null for the default engine
+     * @return a future that completes when the warm-up is finished
+     */
+    public static synchronized Future<?> warmUp(String type) {
+        final String engineType = type == null ? RHINO : type;
+        if (COMMAND_LINE.equals(engineType)) {
+            throw new IllegalArgumentException("The commandline engine runs outside the JVM and cannot be warmed up");
+        }
+        Future<?> result = warmUps.get(engineType);
+        if (result == null) {
+            final ResourceReader resourceReader = warmUpResourceReader;
+            final String[] files = warmUpFiles.clone();
+            final int iterations = warmUpIterations;
+            result = getWarmUpExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    LessCompilationEngine engine;
+                    try {
+                        engine = newEngine(engineType);
+                        engine.initialize(null);
+                    } catch (Exception e) {
+                        logger.warn("warm-up of " + engineType + " less compilation engine failed", e);
+                        return;
+                    }
+                    runWarmUp(engine, engineType, resourceReader, files, iterations);
+                }
+            });
+            warmUps.put(engineType, result);
+        }
+        return result;
+    }
+
+    private static void runWarmUp(LessCompilationEngine engine, String type, ResourceReader resourceReader, String[] files, int iterations) {
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (String file : files) {
+                    String less = resourceReader.read(file);
+                    if (less == null) {
+                        logger.warn("warm-up file {} not found", file);
+                        continue;
+                    }
+                    engine.compile(less, new CompilationOptions(new Options(), file, null, null), resourceReader);
+                }
+            }
+            logger.info("warmed up {} less compilation engine in {} ms", type, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            //a failing warm-up only costs performance
+            logger.warn("warm-up of " + type + " less compilation engine failed", e);
+        }
+    }
+
+    private static synchronized ExecutorService getWarmUpExecutor() {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "LessEngineWarmUp");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return warmUpExecutor;
+    }
+
+    public static synchronized boolean isWarmUpEnabled() {
+        return warmUpEnabled;
+    }
+
+    /**
+     * Enable or disable the background warm-up of engines that are created by this factory. Default: false
+     */
+    public static synchronized void setWarmUpEnabled(boolean warmUpEnabled) {
+        LessCompilationEngineFactory.warmUpEnabled = warmUpEnabled;
+    }
+
+    /**
+     * Set the LESS files that are compiled during warm-up. Default: warmup/warmup.less in the classpath.
+     *
+     * @param resourceReader reads the files and their imports
+     * @param files          the names of the files to compile
+     */
+    public static synchronized void setWarmUpCorpus(ResourceReader resourceReader, String... files) {
+        warmUpResourceReader = resourceReader;
+        warmUpFiles = files.clone();
+    }
+
+    /**
+     * @param warmUpIterations the number of times the corpus is compiled during warm-up. Default: 5
+     */
+    public static synchronized void setWarmUpIterations(int warmUpIterations) {
+        LessCompilationEngineFactory.warmUpIterations = warmUpIterations;
+    }
 }
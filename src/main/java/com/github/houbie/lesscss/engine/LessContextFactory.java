@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import com.github.houbie.lesscss.CompilationAbortedException;
+import com.github.houbie.lesscss.CompilationTimeoutException;
+import com.github.houbie.mozilla.javascript.Context;
+import com.github.houbie.mozilla.javascript.ContextFactory;
+
+/**
+ * Rhino ContextFactory for the LESS compilation engines.
+ * With dynamic scope enabled, functions that are defined in a shared (sealed) scope resolve their global variables
+ * in the scope of the caller, so that every compilation can run in its own child scope.
+ * <p/>
+ * The contexts observe the instruction count of the executing scripts (the precompiled LESS library must be compiled
+ * with -observe-instruction-count), so that a compilation is aborted when the thread is interrupted or when the
+ * deadline of the compilation has passed.
+ */
+class LessContextFactory extends ContextFactory {
+    static final int INSTRUCTION_OBSERVER_THRESHOLD = 10000;
+
+    private static final Object DEADLINE = new Object();
+
+    private final boolean dynamicScope;
+
+    LessContextFactory(boolean dynamicScope) {
+        this.dynamicScope = dynamicScope;
+    }
+
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+        if (featureIndex == Context.FEATURE_DYNAMIC_SCOPE) {
+            return dynamicScope;
+        }
+        return super.hasFeature(cx, featureIndex);
+    }
+
+    @Override
+    protected void onContextCreated(Context cx) {
+        super.onContextCreated(cx);
+        cx.setOptimizationLevel(9);
+        cx.setLanguageVersion(170);
+        cx.setInstructionObserverThreshold(INSTRUCTION_OBSERVER_THRESHOLD);
+    }
+
+    @Override
+    protected void observeInstructionCount(Context cx, int instructionCount) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CompilationAbortedException("LESS compilation was interrupted");
+        }
+        Long deadline = (Long) cx.getThreadLocal(DEADLINE);
+        if (deadline != null && System.currentTimeMillis() > deadline) {
+            throw new CompilationTimeoutException("LESS compilation did not finish in time");
+        }
+    }
+
+    /**
+     * Abort the scripts that are executed by the context after the timeout.
+     *
+     * @param timeout the maximum execution time in milliseconds, 0 means no timeout
+     */
+    static void startDeadline(Context cx, long timeout) {
+        if (timeout > 0) {
+            cx.putThreadLocal(DEADLINE, System.currentTimeMillis() + timeout);
+        }
+    }
+
+    static void clearDeadline(Context cx) {
+        cx.removeThreadLocal(DEADLINE);
+    }
+}
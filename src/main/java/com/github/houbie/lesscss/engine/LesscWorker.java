@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import com.github.houbie.lesscss.CompilationTimeoutException;
+import com.github.houbie.lesscss.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Long running worker process (by default lessc-worker.js in node.js) that executes compilations for the
+ * {@link CommandLineLesscCompilationEngine}, so that the process startup time is paid only once.
+ * <p/>
+ * Requests and responses are exchanged as frames on stdin/stdout: the number of fields, followed by the fields.
+ * Every field is the byte length (-1 for null) followed by the UTF-8 bytes. All numbers are 32 bit big endian integers.
+ * <p/>
+ * A worker that died is restarted, and the request is retried once. A worker that does not respond within the timeout
+ * is killed and restarted by the next request.
+ */
+class LesscWorker {
+    static final String WORKER_SCRIPT = "js/lessc-worker.js";
+
+    private static final Logger logger = LoggerFactory.getLogger(LesscWorker.class);
+    private static final String UTF_8 = "UTF-8";
+
+    private static File extractedWorkerScript;
+
+    private final String[] command;
+    private final ProcessMetrics metrics;
+    private Process process;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private CountingInputStream counter;
+
+    LesscWorker(String[] command, ProcessMetrics metrics) {
+        this.command = command.clone();
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the command to start lessc-worker.js with node.js, the script is extracted to a temporary file
+     */
+    static synchronized String[] getDefaultCommand() {
+        if (extractedWorkerScript == null || !extractedWorkerScript.canRead()) {
+            try {
+                File script = File.createTempFile("lessc-worker", ".js");
+                script.deleteOnExit();
+                IOUtils.writeFile(IOUtils.read(LesscWorker.class.getClassLoader().getResource(WORKER_SCRIPT), UTF_8), script, UTF_8);
+                extractedWorkerScript = script;
+            } catch (IOException e) {
+                throw new RuntimeException("Could not extract " + WORKER_SCRIPT, e);
+            }
+        }
+        return new String[]{"node", extractedWorkerScript.getAbsolutePath()};
+    }
+
+    /**
+     * @param request the request fields
+     * @param timeout maximum time in milliseconds to wait for the response, 0 means no timeout
+     * @return the response fields
+     */
+    synchronized List<String> execute(List<String> request, long timeout) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            ProcessRunner.Watchdog watchdog = null;
+            try {
+                ensureStarted();
+                long start = System.currentTimeMillis();
+                long startCount = counter.getCount();
+                watchdog = ProcessRunner.watch(process, timeout);
+                writeFrame(out, request);
+                List<String> response = readFrame(in);
+                metrics.recordRun(System.currentTimeMillis() - start, counter.getCount() - startCount);
+                return response;
+            } catch (IOException e) {
+                destroy();
+                if (watchdog != null && watchdog.isFired()) {
+                    metrics.recordTimeout();
+                    throw new CompilationTimeoutException("lessc worker did not respond within " + timeout + " ms");
+                }
+                if (attempt > 1) {
+                    throw e;
+                }
+                logger.warn("lessc worker process died, restarting it", e);
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel();
+                }
+            }
+        }
+    }
+
+    private void ensureStarted() throws IOException {
+        if (process == null) {
+            logger.info("Starting lessc worker {}", Arrays.deepToString(command));
+            long start = System.currentTimeMillis();
+            process = new ProcessBuilder(command).start();
+            metrics.recordSpawn(System.currentTimeMillis() - start);
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            counter = new CountingInputStream(process.getInputStream());
+            in = new DataInputStream(new BufferedInputStream(counter));
+            logErrors(process.getErrorStream());
+        }
+    }
+
+    private void logErrors(final InputStream errorStream) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream, UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        logger.warn("lessc worker: {}", line);
+                    }
+                } catch (IOException e) {
+                    logger.debug("lessc worker error stream closed", e);
+                }
+            }
+        }, "LesscWorkerErrors");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the worker process. It will be restarted by the next request.
+     */
+    synchronized void destroy() {
+        if (process != null) {
+            process.destroy();
+            process = null;
+            out = null;
+            in = null;
+            counter = null;
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, List<String> fields) throws IOException {
+        out.writeInt(fields.size());
+        for (String field : fields) {
+            if (field == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = field.getBytes(UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        out.flush();
+    }
+
+    static List<String> readFrame(DataInputStream in) throws IOException {
+        int fieldCount = in.readInt();
+        List<String> fields = new ArrayList<String>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                fields.add(null);
+            } else {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                fields.add(new String(bytes, UTF_8));
+            }
+        }
+        return fields;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
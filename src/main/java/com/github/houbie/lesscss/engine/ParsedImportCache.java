@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache for the parse trees of imported LESS files, so that files that are imported by many compilations
+ * (f.i. variables.less and mixins.less) are parsed only once.
+ * <p/>
+ * The imported files are still read by every compilation (for tracking the imports), and a cached tree is only reused
+ * when the content did not change. The key describes everything else that influences the parse tree (see compile.js).
+ * <p/>
+ * The cached trees are never modified: a compilation gets a copy of a cached tree (see less-rhino-1.7.0-mod.js), so that
+ * concurrent and subsequent compilations cannot see each other's changes. The trees that a compilation parsed are added
+ * when it is finished. The size of the cache is the total length of the sources of the cached trees.
+ */
+class ParsedImportCache {
+    private final long maxSize;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxSize the maximum total length of the sources of the cached trees
+     */
+    ParsedImportCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return a session that keeps the trees of one compilation
+     */
+    Session openSession() {
+        return new Session();
+    }
+
+    private synchronized Entry get(String key, String contents) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.contents.equals(contents)) {
+                hits++;
+                return entry;
+            }
+            entries.remove(key);
+            size -= entry.contents.length();
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(List<Entry> returned) {
+        for (Entry entry : returned) {
+            if (entry.contents.length() <= maxSize && !entries.containsKey(entry.key)) {
+                entries.put(entry.key, entry);
+                size += entry.contents.length();
+            }
+        }
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().contents.length();
+            eldest.remove();
+        }
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The cache as seen by one compilation. The methods take and add are called from the LESS parser,
+     * so they must be public.
+     */
+    public class Session {
+        private final List<Entry> added = new ArrayList<Entry>();
+
+        /**
+         * @return the cached tree, or null when there is none for the key and contents. The tree must be copied before it is used.
+         */
+        public Object take(String key, String contents) {
+            Entry entry = get(key, contents);
+            return (entry == null) ? null : entry.parsed;
+        }
+
+        public void add(String key, String contents, Object parsed) {
+            added.add(new Entry(key, contents, parsed));
+        }
+
+        /**
+         * Add the trees that were parsed by the compilation to the cache.
+         *
+         * @param keep false when the compilation was aborted
+         */
+        void close(boolean keep) {
+            if (keep) {
+                put(added);
+            }
+            added.clear();
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final String contents;
+        private final Object parsed;
+
+        Entry(String key, String contents, Object parsed) {
+            this.key = key;
+            this.contents = contents;
+            this.parsed = parsed;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import com.github.houbie.lesscss.LessParseException;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
+
+/**
+ * LessCompilationEngine that keeps a pool of initialized engines (by default {@link RhinoLessCompilationEngine}'s),
+ * so that multiple compilations can run at the same time.
+ * All the engines in the pool are initialized with the same custom JavaScript.
+ * <p/>
+ * Engines are created on demand until the pool size is reached. A compilation that cannot get an engine within
+ * the borrow timeout fails with a RuntimeException. Engines that have not been used for longer then the idle timeout
+ * are removed from the pool when the pool is accessed again.
+ */
+public class PooledLessCompilationEngine implements ConcurrentLessCompilationEngine {
+    public static final long DEFAULT_BORROW_TIMEOUT = 60 * 1000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledLessCompilationEngine.class);
+
+    private final int poolSize;
+    private final Semaphore available;
+    private final LinkedBlockingDeque<PooledEngine> idleEngines = new LinkedBlockingDeque<PooledEngine>();
+
+    private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private volatile boolean initialized;
+    private String customJavaScript;
+
+    /**
+     * Create a pool with one engine per available processor.
+     */
+    public PooledLessCompilationEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param poolSize the maximum number of engines, and thus the maximum number of concurrent compilations
+     */
+    public PooledLessCompilationEngine(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.poolSize = poolSize;
+        this.available = new Semaphore(poolSize, true);
+    }
+
+    @Override
+    public synchronized void initialize(Reader customJavaScriptReader) {
+        if (!initialized) {
+            if (customJavaScriptReader != null) {
+                try {
+                    customJavaScript = IOUtils.read(customJavaScriptReader);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            //create the first engine immediately, so that initialization errors do not show up during the first compilation
+            idleEngines.offerFirst(new PooledEngine(createInitializedEngine()));
+            initialized = true;
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+        if (!initialized) {
+            throw new RuntimeException("execute called, but not yet initialized");
+        }
+        PooledEngine pooledEngine = borrow();
+        boolean reusable = false;
+        try {
+            CompilationDetails result = pooledEngine.engine.compile(less, compilationOptions, resourceReader);
+            reusable = true;
+            return result;
+        } catch (LessParseException e) {
+            reusable = true;
+            throw e;
+        } finally {
+            release(pooledEngine, reusable);
+        }
+    }
+
+    private PooledEngine borrow() {
+        try {
+            if (!available.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("No less compilation engine became available within " + borrowTimeout + " millis");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a less compilation engine", e);
+        }
+        try {
+            evictIdleEngines();
+            PooledEngine pooledEngine = idleEngines.pollFirst();
+            if (pooledEngine == null) {
+                logger.debug("creating new pooled less compilation engine");
+                pooledEngine = new PooledEngine(createInitializedEngine());
+            }
+            return pooledEngine;
+        } catch (RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledEngine pooledEngine, boolean reusable) {
+        if (reusable) {
+            pooledEngine.lastUsed = System.currentTimeMillis();
+            idleEngines.offerFirst(pooledEngine);
+        } else {
+            logger.warn("discarding pooled less compilation engine after an unexpected exception");
+        }
+        evictIdleEngines();
+        available.release();
+    }
+
+    /**
+     * The most recently used engines are at the head of the deque, so stale engines are removed from the tail.
+     */
+    private void evictIdleEngines() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long threshold = System.currentTimeMillis() - idleTimeout;
+        PooledEngine last;
+        while ((last = idleEngines.peekLast()) != null && last.lastUsed < threshold) {
+            if (idleEngines.removeLastOccurrence(last)) {
+                logger.debug("evicting idle less compilation engine");
+            }
+        }
+    }
+
+    private LessCompilationEngine createInitializedEngine() {
+        LessCompilationEngine engine = createEngine();
+        engine.initialize(customJavaScript != null ? new StringReader(customJavaScript) : null);
+        return engine;
+    }
+
+    /**
+     * Creates a new (uninitialized) engine for the pool. Subclasses can override this to pool other engine types.
+     *
+     * @return a new RhinoLessCompilationEngine
+     */
+    protected LessCompilationEngine createEngine() {
+        return new RhinoLessCompilationEngine();
+    }
+
+    /**
+     * @return the maximum number of engines in the pool
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return the number of engines that are currently waiting in the pool
+     */
+    public int getIdleEngineCount() {
+        return idleEngines.size();
+    }
+
+    /**
+     * @return the maximum time in milliseconds that a compilation waits for a free engine
+     */
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds after which an unused engine is removed from the pool, 0 or less to never remove engines
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    private static class PooledEngine {
+        private final LessCompilationEngine engine;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledEngine(LessCompilationEngine engine) {
+            this.engine = engine;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative metrics of the external processes executed by a {@link CommandLineLesscCompilationEngine}.
+ * All times are in milliseconds.
+ */
+public class ProcessMetrics {
+    private final AtomicLong spawnCount = new AtomicLong();
+    private final AtomicLong spawnTime = new AtomicLong();
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong runTime = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    void recordSpawn(long millis) {
+        spawnCount.incrementAndGet();
+        spawnTime.addAndGet(millis);
+    }
+
+    void recordRun(long millis, long bytes) {
+        runCount.incrementAndGet();
+        runTime.addAndGet(millis);
+        outputBytes.addAndGet(bytes);
+    }
+
+    void recordTimeout() {
+        timeoutCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of started processes
+     */
+    public long getSpawnCount() {
+        return spawnCount.get();
+    }
+
+    /**
+     * @return the total time needed to start the processes
+     */
+    public long getSpawnTime() {
+        return spawnTime.get();
+    }
+
+    /**
+     * @return the number of executed compilations (or dependency listings)
+     */
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    /**
+     * @return the total time between sending the LESS source and receiving the complete output
+     */
+    public long getRunTime() {
+        return runTime.get();
+    }
+
+    /**
+     * @return the total number of bytes received on stdout and stderr
+     */
+    public long getOutputBytes() {
+        return outputBytes.get();
+    }
+
+    /**
+     * @return the number of processes that were killed because they did not finish in time
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessMetrics{spawnCount=" + spawnCount + ", spawnTime=" + spawnTime + ", runCount=" + runCount
+                + ", runTime=" + runTime + ", outputBytes=" + outputBytes + ", timeoutCount=" + timeoutCount + '}';
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import com.github.houbie.lesscss.CompilationTimeoutException;
+import com.github.houbie.lesscss.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Executes a process with the LESS source on stdin. Stdout and stderr are drained concurrently, so that a process that
+ * writes a lot of errors cannot block on a full pipe, and the process is killed when it does not finish within the timeout.
+ */
+class ProcessRunner {
+    private static final Logger logger = LoggerFactory.getLogger(ProcessRunner.class);
+    private static final String UTF_8 = "UTF-8";
+    private static final int MIN_BUFFER_SIZE = 8192;
+    private static final int ERROR_BUFFER_SIZE = 1024;
+
+    private static Timer watchdogTimer;
+
+    private final long timeout;
+    private final ProcessMetrics metrics;
+
+    /**
+     * @param timeout maximum execution time in milliseconds, 0 means no timeout
+     * @param metrics collects the process metrics
+     */
+    ProcessRunner(long timeout, ProcessMetrics metrics) {
+        this.timeout = timeout;
+        this.metrics = metrics;
+    }
+
+    Result run(String[] command, String input) throws IOException, InterruptedException {
+        logger.info("Executing commandline {}", Arrays.deepToString(command));
+        long start = System.currentTimeMillis();
+        Process process = new ProcessBuilder(command).start();
+        long started = System.currentTimeMillis();
+        metrics.recordSpawn(started - start);
+
+        Watchdog watchdog = watch(process, timeout);
+        try {
+            byte[] source = input.getBytes(UTF_8);
+            Drainer output = new Drainer(process.getInputStream(), Math.max(MIN_BUFFER_SIZE, source.length * 2), "LesscOutput");
+            Drainer errors = new Drainer(process.getErrorStream(), ERROR_BUFFER_SIZE, "LesscErrors");
+            output.start();
+            errors.start();
+            try {
+                process.getOutputStream().write(source);
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                //the process stopped reading, its exit value and error output tell why
+                logger.debug("Could not write the LESS source to the process", e);
+            }
+            int exitValue = process.waitFor();
+            if (watchdog != null && watchdog.isFired()) {
+                throw timeoutException(command, timeout);
+            }
+            output.join();
+            errors.join();
+            long bytes = output.getBuffer().size() + errors.getBuffer().size();
+            metrics.recordRun(System.currentTimeMillis() - started, bytes);
+            logger.debug("{} finished in {} ms with {} output bytes", new Object[]{command[0], System.currentTimeMillis() - start, bytes});
+            return new Result(exitValue, output.getBuffer().toString(UTF_8), errors.getBuffer().toString(UTF_8));
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel();
+            }
+        }
+    }
+
+    /**
+     * Schedule a task that kills the process after the timeout.
+     *
+     * @return the scheduled task, or null when there is no timeout
+     */
+    static Watchdog watch(Process process, long timeout) {
+        if (timeout <= 0) {
+            return null;
+        }
+        Watchdog watchdog = new Watchdog(process);
+        getWatchdogTimer().schedule(watchdog, timeout);
+        return watchdog;
+    }
+
+    CompilationTimeoutException timeoutException(String[] command, long timeout) {
+        metrics.recordTimeout();
+        return new CompilationTimeoutException(command[0] + " did not finish within " + timeout + " ms");
+    }
+
+    private static synchronized Timer getWatchdogTimer() {
+        if (watchdogTimer == null) {
+            watchdogTimer = new Timer("LesscWatchdog", true);
+        }
+        return watchdogTimer;
+    }
+
+    static class Watchdog extends TimerTask {
+        private final Process process;
+        private volatile boolean fired;
+
+        Watchdog(Process process) {
+            this.process = process;
+        }
+
+        @Override
+        public void run() {
+            fired = true;
+            logger.warn("Killing process that did not finish in time");
+            process.destroy();
+        }
+
+        boolean isFired() {
+            return fired;
+        }
+    }
+
+    private static class Drainer extends Thread {
+        private final InputStream inputStream;
+        private final ByteArrayOutputStream buffer;
+
+        Drainer(InputStream inputStream, int size, String name) {
+            super(name);
+            this.inputStream = inputStream;
+            this.buffer = new ByteArrayOutputStream(size);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                IOUtils.copyLarge(inputStream, buffer);
+            } catch (IOException e) {
+                logger.debug("Error while reading process output", e);
+            } finally {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    logger.debug("Error while closing process output", e);
+                }
+            }
+        }
+
+        ByteArrayOutputStream getBuffer() {
+            return buffer;
+        }
+    }
+
+    static class Result {
+        private final int exitValue;
+        private final String output;
+        private final String errors;
+
+        Result(int exitValue, String output, String errors) {
+            this.exitValue = exitValue;
+            this.output = output;
+            this.errors = errors;
+        }
+
+        int getExitValue() {
+            return exitValue;
+        }
+
+        String getOutput() {
+            return output;
+        }
+
+        String getErrors() {
+            return errors;
+        }
+    }
+}
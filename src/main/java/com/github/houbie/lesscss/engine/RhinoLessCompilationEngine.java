@@ -17,12 +17,14 @@
 package com.github.houbie.lesscss.engine;
 
 
+import com.github.houbie.lesscss.CompilationAbortedException;
 import com.github.houbie.lesscss.LessParseException;
 import com.github.houbie.lesscss.compiledjs.LessImpl;
 import com.github.houbie.lesscss.resourcereader.ResourceReader;
 import com.github.houbie.mozilla.javascript.Context;
 import com.github.houbie.mozilla.javascript.Function;
 import com.github.houbie.mozilla.javascript.Scriptable;
+import com.github.houbie.mozilla.javascript.Undefined;
 import com.github.houbie.mozilla.javascript.tools.shell.Global;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,35 +37,44 @@ import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
 
 /**
  * LessCompilationEngine implementation that uses the Mozilla Rhino JavaScript engine to execute pre-compiled JavaScript.
+ * <p/>
+ * A compilation is aborted with a {@link CompilationAbortedException} when the compiling thread is interrupted,
+ * or with a {@link com.github.houbie.lesscss.CompilationTimeoutException} when it exceeds the timeout.
  */
 public class RhinoLessCompilationEngine implements LessCompilationEngine {
     private static Logger logger = LoggerFactory.getLogger(RhinoLessCompilationEngine.class);
 
+    private static final LessContextFactory contextFactory = new LessContextFactory(false);
+
     private boolean initialized;
     private Scriptable scope;
     private Function compileFunction;
+    private volatile long timeout;
+    private volatile ParsedImportCache importCache;
 
     @Override
     public void initialize(Reader customJavaScriptReader) {
         if (!initialized) {
-            Context cx = Context.enter();
-            logger.debug("Using implementation version: " + cx.getImplementationVersion());
-            cx.setOptimizationLevel(9);
-            cx.setLanguageVersion(170);
-            Global global = new Global();
-            global.init(cx);
-            scope = cx.initStandardObjects(global);
-            new LessImpl().exec(cx, scope);
-
-            if (customJavaScriptReader != null) {
-                try {
-                    cx.evaluateReader(scope, customJavaScriptReader, "customJavaScript", 1, null);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            Context cx = contextFactory.enterContext();
+            try {
+                logger.debug("Using implementation version: " + cx.getImplementationVersion());
+                Global global = new Global();
+                global.init(cx);
+                scope = cx.initStandardObjects(global);
+                new LessImpl().exec(cx, scope);
+
+                if (customJavaScriptReader != null) {
+                    try {
+                        cx.evaluateReader(scope, customJavaScriptReader, "customJavaScript", 1, null);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+                compileFunction = (Function) scope.get("compile", scope);
+                initialized = true;
+            } finally {
+                Context.exit();
             }
-            compileFunction = (Function) scope.get("compile", scope);
-            initialized = true;
         }
     }
 
@@ -74,11 +85,27 @@ public class RhinoLessCompilationEngine implements LessCompilationEngine {
         }
 
         Map result;
+        ParsedImportCache cache = importCache;
+        ParsedImportCache.Session importCacheSession = (cache != null) ? cache.openSession() : null;
+        boolean aborted = true;
+        Context cx = contextFactory.enterContext();
         try {
-            Object[] args = {less, compilationOptions, resourceReader};
-            result = (Map) Context.call(null, compileFunction, scope, scope, args);
+            LessContextFactory.startDeadline(cx, timeout);
+            //wrap the session, Rhino warns about java objects that are passed as arguments of a javascript function
+            Object importCacheArg = (importCacheSession != null) ? Context.javaToJS(importCacheSession, scope) : Undefined.instance;
+            Object[] args = {less, compilationOptions, resourceReader, importCacheArg};
+            result = (Map) compileFunction.call(cx, scope, scope, args);
+            aborted = false;
+        } catch (CompilationAbortedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Exception while compiling less", e);
+        } finally {
+            LessContextFactory.clearDeadline(cx);
+            Context.exit();
+            if (importCacheSession != null) {
+                importCacheSession.close(!aborted);
+            }
         }
         if (result.get("parseException") != null) {
             throw new LessParseException(result.get("parseException").toString());
@@ -86,4 +113,32 @@ public class RhinoLessCompilationEngine implements LessCompilationEngine {
         return new CompilationDetails((String) result.get("css"), (String) result.get("sourceMapContent"));
     }
 
+    /**
+     * @return the maximum size of the import cache, 0 when it is disabled
+     */
+    public long getImportCacheSize() {
+        ParsedImportCache cache = importCache;
+        return (cache != null) ? cache.getMaxSize() : 0;
+    }
+
+    /**
+     * Keep the parse trees of imported files, so that files that are imported by many compilations are parsed only once.
+     * The least recently used trees are evicted when the total length of their sources exceeds the maximum size.
+     *
+     * @param maxSize the maximum total length (in characters) of the sources of the cached trees, 0 disables the cache. Default: 0
+     */
+    public void setImportCacheSize(long maxSize) {
+        importCache = (maxSize > 0) ? new ParsedImportCache(maxSize) : null;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout maximum duration of a compilation in milliseconds, 0 means no timeout. Default: 0
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 }
@@ -19,24 +19,34 @@ package com.github.houbie.lesscss.engine;
 
 import com.github.houbie.lesscss.LessParseException;
 import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.utils.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.script.*;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.SequenceInputStream;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
 
 /**
  * LessCompilationEngine implementation that uses a standard {@link javax.script.ScriptEngine} implementation.
+ * <p/>
+ * When the ScriptEngine implements {@link Compilable}, the LESS script is compiled only once per ScriptEngine, and engines
+ * that are created with the same ScriptEngine name share the same ScriptEngine.
+ * Every concurrent compilation runs in its own {@link Bindings}, that are initialized once and reused afterwards.
+ * <p/>
+ * Compilations only run concurrently when the THREADING parameter of the ScriptEngineFactory is MULTITHREADED,
+ * THREAD-ISOLATED or STATELESS. Otherwise (f.i. nashorn, which reports null), the compilations of all the engines that
+ * share the ScriptEngine are serialized.
  */
-public class ScriptEngineLessCompilationEngine implements LessCompilationEngine {
+public class ScriptEngineLessCompilationEngine implements ConcurrentLessCompilationEngine {
     private static Logger logger = LoggerFactory.getLogger(ScriptEngineLessCompilationEngine.class);
 
     private static final String JS_ALL_MIN_JS = "js/all-min.js";
@@ -44,20 +54,30 @@ public class ScriptEngineLessCompilationEngine implements LessCompilationEngine
     private static final String MINIFY_SCRIPT = "js/cssmin.js";
     private static final String COMPILE_SCRIPT = "js/compile.js";
     private static final boolean MINIFIED = true;
+    private static final String COMPILE_INVOCATION = "compile(lessSource, compilationOptions, resourceReader)";
+    private static final String[] COMPILE_ARGUMENTS = {"lessSource", "compilationOptions", "resourceReader"};
 
+    private static final Map<String, ScriptEngine> sharedScriptEngines = new HashMap<String, ScriptEngine>();
+    private static final Map<ScriptEngine, CompiledScript> compiledLessScripts = new WeakHashMap<ScriptEngine, CompiledScript>();
 
-    private ScriptEngine scriptEngine;
+    private final ScriptEngine scriptEngine;
+    private final boolean threadSafe;
+    private final ConcurrentLinkedQueue<Bindings> idleBindings = new ConcurrentLinkedQueue<Bindings>();
+    private String customJavaScript;
+    private CompiledScript customScript;
+    private CompiledScript lessScript;
+    private CompiledScript compileInvocation;
 
     /**
      * @param scriptEngineName the name of the underlying ScriptEngine (e.g. "nashorn", "rhino", ...)
      */
     public ScriptEngineLessCompilationEngine(String scriptEngineName) {
-        logger.info("creating new NashornEngine");
-        ScriptEngineManager factory = new ScriptEngineManager();
-        scriptEngine = factory.getEngineByName(scriptEngineName);
+        logger.info("creating new engine with ScriptEngine {}", scriptEngineName);
+        scriptEngine = getSharedScriptEngine(scriptEngineName);
         if (scriptEngine == null) {
             throw new RuntimeException("The ScriptEngine " + scriptEngineName + " could not be loaded");
         }
+        threadSafe = isThreadSafe(scriptEngine);
     }
 
     /**
@@ -66,15 +86,53 @@ public class ScriptEngineLessCompilationEngine implements LessCompilationEngine
     public ScriptEngineLessCompilationEngine(ScriptEngine scriptEngine) {
         logger.info("creating new engine with {}", scriptEngine.getClass());
         this.scriptEngine = scriptEngine;
+        threadSafe = isThreadSafe(scriptEngine);
+    }
+
+    /**
+     * @return true if the ScriptEngine can evaluate scripts concurrently, each compilation using its own Bindings
+     */
+    static boolean isThreadSafe(ScriptEngine scriptEngine) {
+        Object threading = (scriptEngine.getFactory() != null) ? scriptEngine.getFactory().getParameter("THREADING") : null;
+        return "MULTITHREADED".equals(threading) || "THREAD-ISOLATED".equals(threading) || "STATELESS".equals(threading);
+    }
+
+    private static ScriptEngine getSharedScriptEngine(String scriptEngineName) {
+        synchronized (sharedScriptEngines) {
+            ScriptEngine result = sharedScriptEngines.get(scriptEngineName);
+            if (result == null) {
+                result = new ScriptEngineManager().getEngineByName(scriptEngineName);
+                if (result != null) {
+                    sharedScriptEngines.put(scriptEngineName, result);
+                }
+            }
+            return result;
+        }
     }
 
     @Override
     public void initialize(Reader customJavaScriptReader) {
         try {
             if (customJavaScriptReader != null) {
-                scriptEngine.eval(customJavaScriptReader);
+                customJavaScript = IOUtils.read(customJavaScriptReader);
+            }
+            if (scriptEngine instanceof Compilable) {
+                Compilable compilable = (Compilable) scriptEngine;
+                synchronized (compiledLessScripts) {
+                    lessScript = compiledLessScripts.get(scriptEngine);
+                    if (lessScript == null) {
+                        logger.info("compiling the less script");
+                        lessScript = compilable.compile(getLessScriptReader());
+                        compiledLessScripts.put(scriptEngine, lessScript);
+                    }
+                }
+                if (customJavaScript != null) {
+                    customScript = compilable.compile(customJavaScript);
+                }
+                compileInvocation = compilable.compile(COMPILE_INVOCATION);
             }
-            scriptEngine.eval(getLessScriptReader());
+            idleBindings.clear();
+            idleBindings.offer(createBindings());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -91,14 +149,72 @@ public class ScriptEngineLessCompilationEngine implements LessCompilationEngine
         return new InputStreamReader(concatenatedScripts);
     }
 
+    /**
+     * Create new bindings in which the custom and the LESS script have been evaluated.
+     */
+    private Bindings createBindings() throws ScriptException {
+        Bindings bindings = scriptEngine.createBindings();
+        ScriptContext context = createContext(bindings);
+        if (lessScript != null) {
+            lessScript.eval(context);
+        } else {
+            scriptEngine.eval(getLessScriptReader(), context);
+        }
+        //custom functions are added to the less object
+        if (customScript != null) {
+            customScript.eval(context);
+        } else if (customJavaScript != null) {
+            scriptEngine.eval(customJavaScript, context);
+        }
+        return bindings;
+    }
+
+    private ScriptContext createContext(Bindings bindings) {
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        return context;
+    }
+
+
+    @Override
+    public boolean isConcurrent() {
+        return threadSafe;
+    }
 
     @Override
     public CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+        if (threadSafe) {
+            return doCompile(less, compilationOptions, resourceReader);
+        }
+        //the ScriptEngine can be shared by multiple engines
+        synchronized (scriptEngine) {
+            return doCompile(less, compilationOptions, resourceReader);
+        }
+    }
+
+    private CompilationDetails doCompile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
         Map result;
+        Bindings bindings = null;
         try {
-            result = (Map) ((Invocable) scriptEngine).invokeFunction("compile", less, compilationOptions, resourceReader);
+            bindings = idleBindings.poll();
+            if (bindings == null) {
+                logger.debug("creating new bindings for a concurrent compilation");
+                bindings = createBindings();
+            }
+            bindings.put(COMPILE_ARGUMENTS[0], less);
+            bindings.put(COMPILE_ARGUMENTS[1], compilationOptions);
+            bindings.put(COMPILE_ARGUMENTS[2], resourceReader);
+            ScriptContext context = createContext(bindings);
+            result = (Map) (compileInvocation != null ? compileInvocation.eval(context) : scriptEngine.eval(COMPILE_INVOCATION, context));
         } catch (Exception e) {
             throw new RuntimeException("Exception while compiling less", e);
+        } finally {
+            if (bindings != null) {
+                for (String argument : COMPILE_ARGUMENTS) {
+                    bindings.remove(argument);
+                }
+                idleBindings.offer(bindings);
+            }
         }
         if (result.get("parseException") != null) {
             throw new LessParseException((String) result.get("parseException"));
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+
+import com.github.houbie.lesscss.CompilationAbortedException;
+import com.github.houbie.lesscss.LessParseException;
+import com.github.houbie.lesscss.compiledjs.LessImpl;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+import com.github.houbie.lesscss.utils.DigestUtils;
+import com.github.houbie.lesscss.utils.IOUtils;
+import com.github.houbie.mozilla.javascript.Context;
+import com.github.houbie.mozilla.javascript.Function;
+import com.github.houbie.mozilla.javascript.Scriptable;
+import com.github.houbie.mozilla.javascript.ScriptableObject;
+import com.github.houbie.mozilla.javascript.Undefined;
+import com.github.houbie.mozilla.javascript.tools.shell.Global;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
+
+/**
+ * LessCompilationEngine implementation that uses the Mozilla Rhino JavaScript engine, like {@link RhinoLessCompilationEngine},
+ * but that can execute multiple compilations at the same time.
+ * <p/>
+ * The scope with the LESS library and the custom JavaScript is built only once per JVM (per distinct custom JavaScript)
+ * and then sealed. The scopes of the {@link #MAX_SHARED_SCOPES} most recently initialized custom JavaScripts are kept
+ * for new engines. Every compilation runs in a lightweight child scope that has the shared scope as prototype,
+ * so additional engines and concurrent compilations cost neither extra memory nor extra initialization time.
+ * <p/>
+ * Like the {@link RhinoLessCompilationEngine}, compilations are aborted when the thread is interrupted or the timeout expires.
+ */
+public class SharedScopeRhinoLessCompilationEngine implements ConcurrentLessCompilationEngine {
+    private static Logger logger = LoggerFactory.getLogger(SharedScopeRhinoLessCompilationEngine.class);
+
+    /**
+     * The maximum number of shared scopes that are kept for new engines
+     */
+    public static final int MAX_SHARED_SCOPES = 8;
+
+    private static final LessContextFactory contextFactory = new LessContextFactory(true);
+    //keyed on the digest of the custom JavaScript, engines keep a reference to their own scope
+    private static final Map<String, Scriptable> sharedScopes = new LinkedHashMap<String, Scriptable>(16, 0.75f, true);
+
+    private Scriptable sharedScope;
+    private Function compileFunction;
+    private volatile long timeout;
+    private volatile ParsedImportCache importCache;
+
+    @Override
+    public synchronized void initialize(Reader customJavaScriptReader) {
+        if (sharedScope == null) {
+            String customJavaScript = null;
+            if (customJavaScriptReader != null) {
+                try {
+                    customJavaScript = IOUtils.read(customJavaScriptReader);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            Scriptable scope = getSharedScope(customJavaScript);
+            compileFunction = (Function) scope.get("compile", scope);
+            sharedScope = scope;
+        }
+    }
+
+    private static Scriptable getSharedScope(String customJavaScript) {
+        String key = (customJavaScript != null) ? DigestUtils.digest(customJavaScript) : "";
+        synchronized (sharedScopes) {
+            Scriptable scope = sharedScopes.get(key);
+            if (scope == null) {
+                scope = createSharedScope(customJavaScript);
+                sharedScopes.put(key, scope);
+                if (sharedScopes.size() > MAX_SHARED_SCOPES) {
+                    Iterator<Scriptable> eldest = sharedScopes.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return scope;
+        }
+    }
+
+    private static Scriptable createSharedScope(String customJavaScript) {
+        Context cx = contextFactory.enterContext();
+        try {
+            logger.debug("Creating shared scope with implementation version: " + cx.getImplementationVersion());
+            Global global = new Global();
+            global.init(cx);
+            ScriptableObject scope = (ScriptableObject) cx.initStandardObjects(global);
+            new LessImpl().exec(cx, scope);
+            if (customJavaScript != null) {
+                cx.evaluateString(scope, customJavaScript, "customJavaScript", 1, null);
+            }
+            scope.sealObject();
+            return scope;
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+        if (sharedScope == null) {
+            throw new RuntimeException("execute called, but not yet initialized");
+        }
+
+        Map result;
+        ParsedImportCache cache = importCache;
+        ParsedImportCache.Session importCacheSession = (cache != null) ? cache.openSession() : null;
+        boolean aborted = true;
+        Context cx = contextFactory.enterContext();
+        try {
+            LessContextFactory.startDeadline(cx, timeout);
+            Scriptable scope = cx.newObject(sharedScope);
+            scope.setPrototype(sharedScope);
+            scope.setParentScope(null);
+            //wrap the session, Rhino warns about java objects that are passed as arguments of a javascript function
+            Object importCacheArg = (importCacheSession != null) ? Context.javaToJS(importCacheSession, scope) : Undefined.instance;
+            Object[] args = {less, compilationOptions, resourceReader, importCacheArg};
+            result = (Map) compileFunction.call(cx, scope, scope, args);
+            aborted = false;
+        } catch (CompilationAbortedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Exception while compiling less", e);
+        } finally {
+            LessContextFactory.clearDeadline(cx);
+            Context.exit();
+            if (importCacheSession != null) {
+                importCacheSession.close(!aborted);
+            }
+        }
+        if (result.get("parseException") != null) {
+            throw new LessParseException(result.get("parseException").toString());
+        }
+        return new CompilationDetails((String) result.get("css"), (String) result.get("sourceMapContent"));
+    }
+
+    /**
+     * @return the maximum size of the import cache, 0 when it is disabled
+     */
+    public long getImportCacheSize() {
+        ParsedImportCache cache = importCache;
+        return (cache != null) ? cache.getMaxSize() : 0;
+    }
+
+    /**
+     * Keep the parse trees of imported files, so that files that are imported by many compilations are parsed only once.
+     * The least recently used trees are evicted when the total length of their sources exceeds the maximum size.
+     *
+     * @param maxSize the maximum total length (in characters) of the sources of the cached trees, 0 disables the cache. Default: 0
+     */
+    public void setImportCacheSize(long maxSize) {
+        importCache = (maxSize > 0) ? new ParsedImportCache(maxSize) : null;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout maximum duration of a compilation in milliseconds, 0 means no timeout. Default: 0
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine;
+
+import com.github.houbie.lesscss.CompilationAbortedException;
+import com.github.houbie.lesscss.resourcereader.ResourceReader;
+
+import java.io.Reader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.github.houbie.lesscss.LessCompiler.CompilationDetails;
+
+/**
+ * LessCompilationEngine that is handed out by {@link LessCompilationEngineFactory} when warm-up is enabled.
+ * <p/>
+ * As soon as the wrapped engine is initialized, it compiles the warm-up corpus in a background thread.
+ * The first compilation waits until the warm-up is finished, or cancels it when it did not start yet.
+ */
+public class WarmUpLessCompilationEngine implements ConcurrentLessCompilationEngine {
+    private final LessCompilationEngine engine;
+    private final String type;
+    private volatile Future<?> warmUp;
+
+    /**
+     * @param engine the engine that is warmed up
+     * @param type   the engine type, used for logging
+     */
+    public WarmUpLessCompilationEngine(LessCompilationEngine engine, String type) {
+        this.engine = engine;
+        this.type = type;
+    }
+
+    @Override
+    public void initialize(Reader customJavaScriptReader) {
+        engine.initialize(customJavaScriptReader);
+        warmUp = LessCompilationEngineFactory.warmUp(engine, type);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return engine instanceof ConcurrentLessCompilationEngine && ((ConcurrentLessCompilationEngine) engine).isConcurrent();
+    }
+
+    @Override
+    public CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+        awaitWarmUp();
+        return engine.compile(less, compilationOptions, resourceReader);
+    }
+
+    private void awaitWarmUp() {
+        Future<?> future = warmUp;
+        if (future == null) {
+            return;
+        }
+        //a warm-up that is still queued is of no use anymore
+        if (!future.cancel(false)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompilationAbortedException("Interrupted while waiting for the warm-up of the " + type + " less compilation engine");
+            } catch (ExecutionException e) {
+                //the warm-up logs its own errors
+            }
+        }
+        warmUp = null;
+    }
+
+    /**
+     * @return the warm-up of the wrapped engine, or null if it is finished and a compilation already waited for it
+     */
+    public Future<?> getWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * @return the engine that is warmed up
+     */
+    public LessCompilationEngine getEngine() {
+        return engine;
+    }
+}
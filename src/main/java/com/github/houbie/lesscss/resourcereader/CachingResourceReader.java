@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.resourcereader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ResourceReader implementation that keeps the resources that are read by another ResourceReader in memory.
+ * <p/>
+ * A cached resource is revalidated by comparing the lastModified timestamp of the delegate, but at most once per
+ * revalidation interval. The least recently used resources are evicted when the total size of the cache
+ * (in bytes, strings count for 2 bytes per character) exceeds the maximum size.
+ *
+ * @author Ivo Houbrechts
+ */
+public class CachingResourceReader implements ResourceReader {
+    private static final Logger logger = LoggerFactory.getLogger(CachingResourceReader.class);
+
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+    public static final long DEFAULT_REVALIDATION_INTERVAL = 1000;
+
+    private final ResourceReader resourceReader;
+    private final long maxSize;
+    private final long revalidationInterval;
+
+    private transient Map<String, Entry> entries;
+    private transient long size;
+    private transient long hits;
+    private transient long misses;
+
+    /**
+     * Construct a new CachingResourceReader with a maximum size of 10 MB that revalidates resources at most once per second
+     *
+     * @param resourceReader the ResourceReader to delegate to
+     */
+    public CachingResourceReader(ResourceReader resourceReader) {
+        this(resourceReader, DEFAULT_MAX_SIZE, DEFAULT_REVALIDATION_INTERVAL);
+    }
+
+    /**
+     * @param resourceReader       the ResourceReader to delegate to
+     * @param maxSize              the maximum total size of the cached resources in bytes
+     * @param revalidationInterval the minimum time in milliseconds between 2 checks of the lastModified timestamp of a resource,
+     *                             0 to check on every access
+     */
+    public CachingResourceReader(ResourceReader resourceReader, long maxSize, long revalidationInterval) {
+        if (resourceReader == null) {
+            throw new IllegalArgumentException("resourceReader cannot be null");
+        }
+        this.resourceReader = resourceReader;
+        this.maxSize = maxSize;
+        this.revalidationInterval = revalidationInterval;
+    }
+
+    @Override
+    public boolean canRead(String location) {
+        return resourceReader.canRead(location);
+    }
+
+    @Override
+    public String read(String location) throws IOException {
+        String key = "text:" + location;
+        Entry entry = getValid(key, location);
+        if (entry != null) {
+            return (String) entry.content;
+        }
+        long lastModified = resourceReader.lastModified(location);
+        String result = resourceReader.read(location);
+        if (result != null) {
+            put(key, new Entry(result, 2L * result.length(), lastModified));
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] readBytes(String location) throws IOException {
+        String key = "bytes:" + location;
+        Entry entry = getValid(key, location);
+        if (entry != null) {
+            return ((byte[]) entry.content).clone();
+        }
+        long lastModified = resourceReader.lastModified(location);
+        byte[] result = resourceReader.readBytes(location);
+        if (result != null) {
+            put(key, new Entry(result.clone(), result.length, lastModified));
+        }
+        return result;
+    }
+
+    @Override
+    public long lastModified(String location) {
+        Entry entry = getValid("text:" + location, location);
+        return (entry != null) ? entry.lastModified : resourceReader.lastModified(location);
+    }
+
+    private Entry getValid(String key, String location) {
+        Entry entry;
+        synchronized (this) {
+            entry = getEntries().get(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.validated >= revalidationInterval) {
+            if (resourceReader.lastModified(location) != entry.lastModified) {
+                logger.debug("{} was modified", location);
+                remove(key, entry);
+                return null;
+            }
+            entry.validated = now;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return entry;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        misses++;
+        if (getEntries().get(key) == entry) {
+            getEntries().remove(key);
+            size -= entry.size;
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        if (entry.size > maxSize) {
+            return;
+        }
+        Entry previous = getEntries().put(key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        Iterator<Entry> eldest = getEntries().values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        //the cache is not serialized
+        if (entries == null) {
+            entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        }
+        return entries;
+    }
+
+    /**
+     * Remove all the resources from the cache
+     */
+    public synchronized void clear() {
+        getEntries().clear();
+        size = 0;
+    }
+
+    /**
+     * @return the ResourceReader to delegate to
+     */
+    public ResourceReader getDelegate() {
+        return resourceReader;
+    }
+
+    /**
+     * @return the maximum total size of the cached resources in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the minimum time in milliseconds between 2 checks of the lastModified timestamp of a resource
+     */
+    public long getRevalidationInterval() {
+        return revalidationInterval;
+    }
+
+    /**
+     * @return the total size of the cached resources in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of reads (including lastModified requests) that were served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of reads (including lastModified requests) that were delegated
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CachingResourceReader that = (CachingResourceReader) o;
+
+        if (maxSize != that.maxSize) return false;
+        if (revalidationInterval != that.revalidationInterval) return false;
+        if (!resourceReader.equals(that.resourceReader)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = resourceReader.hashCode();
+        result = 31 * result + (int) (maxSize ^ (maxSize >>> 32));
+        result = 31 * result + (int) (revalidationInterval ^ (revalidationInterval >>> 32));
+        return result;
+    }
+
+    private static class Entry {
+        private final Object content;
+        private final long size;
+        private final long lastModified;
+        private volatile long validated;
+
+        Entry(Object content, long size, long lastModified) {
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.validated = System.currentTimeMillis();
+        }
+    }
+}
@@ -18,16 +18,27 @@ package com.github.houbie.lesscss.resourcereader;
 
 
 import com.github.houbie.lesscss.utils.IOUtils;
+import com.github.houbie.lesscss.utils.StringBuilderWriter;
 import com.github.houbie.lesscss.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * ResourceReader implementation that searches the classpath relative to a base path.
+ * <p/>
+ * The first time a resource is accessed, the resources under the base path in directories and jar files on the classpath
+ * are indexed, so that they can be read and their timestamp can be checked without looking them up in the ClassLoader.
+ * Resources that are not in the index (f.i. resources outside the base path or that were added later) are looked up
+ * in the ClassLoader. The whole classpath is not indexed when the base path is empty.
  *
  * @author Ivo Houbrechts
  */
@@ -37,6 +48,9 @@ public class ClasspathResourceReader implements ResourceReader {
     private String basePath;
     private String encoding;
 
+    private transient Map<String, Resource> index;
+    private transient boolean indexed;
+
     /**
      * Construct a new ClasspathResourceReader using java's default character encoding
      */
@@ -80,7 +94,7 @@ public class ClasspathResourceReader implements ResourceReader {
 
     @Override
     public boolean canRead(String location) {
-        return getUrl(location) != null;
+        return getResource(location) != null;
     }
 
     @Override
@@ -89,8 +103,17 @@ public class ClasspathResourceReader implements ResourceReader {
             return null;
         }
         logger.debug("reading {} with basePath {}", location, basePath);
-        URL url = getUrl(location);
-        return (url != null) ? IOUtils.read(url, encoding) : null;
+        InputStream inputStream = open(location);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            StringBuilderWriter writer = new StringBuilderWriter();
+            IOUtils.copy(inputStream, writer, encoding);
+            return writer.toString();
+        } finally {
+            inputStream.close();
+        }
     }
 
     @Override
@@ -99,23 +122,150 @@ public class ClasspathResourceReader implements ResourceReader {
             return null;
         }
         logger.debug("reading bytes {} with basePath {}", location, basePath);
-        URL url = getUrl(location);
-        if (url != null) {
+        InputStream inputStream = open(location);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            IOUtils.copyLarge(url.openStream(), bos);
+            IOUtils.copyLarge(inputStream, bos);
             return bos.toByteArray();
+        } finally {
+            inputStream.close();
         }
-        return null;
     }
 
-    private URL getUrl(String location) {
-        String path = location.startsWith("/") ? location.substring(1) : basePath + location;
-        return getClass().getClassLoader().getResource(path);
+    private InputStream open(String location) throws IOException {
+        Resource resource = getResource(location);
+        return (resource != null) ? resource.open() : null;
     }
 
+    /**
+     * @return timestamp of last modification of the file or the jar entry, Long.MIN_VALUE if the resource is found
+     * in another location, or Long.MAX_VALUE if the resource cannot be resolved
+     */
     @Override
     public long lastModified(String location) {
-        return canRead(location) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        Resource resource = getResource(location);
+        return (resource != null) ? resource.lastModified() : Long.MAX_VALUE;
+    }
+
+    private Resource getResource(String location) {
+        String path = normalize(location.startsWith("/") ? location.substring(1) : basePath + location);
+        Map<String, Resource> resources = getIndex();
+        if (resources != null && path.startsWith(basePath)) {
+            Resource resource = resources.get(path.substring(basePath.length()));
+            if (resource != null) {
+                return resource;
+            }
+        }
+        URL url = getClass().getClassLoader().getResource(path);
+        return (url != null) ? new UrlResource(url) : null;
+    }
+
+    /**
+     * Remove the "." and ".." segments from the path, because they are not supported inside jar files.
+     */
+    private static String normalize(String path) {
+        if (!path.contains("./")) {
+            return path;
+        }
+        LinkedList<String> segments = new LinkedList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    //outside the classpath root
+                    return path;
+                }
+                segments.removeLast();
+            } else if (!segment.equals(".") && segment.length() > 0) {
+                segments.add(segment);
+            }
+        }
+        StringBuilder result = new StringBuilder(path.length());
+        for (String segment : segments) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(segment);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the index of the resources under the base path, or null if the classpath cannot be indexed
+     */
+    private synchronized Map<String, Resource> getIndex() {
+        if (!indexed) {
+            indexed = true;
+            index = createIndex();
+        }
+        return index;
+    }
+
+    private Map<String, Resource> createIndex() {
+        if (basePath.length() == 0) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Resource> result = new HashMap<String, Resource>();
+        try {
+            Enumeration<URL> roots = getClass().getClassLoader().getResources(basePath);
+            while (roots.hasMoreElements()) {
+                URL root = roots.nextElement();
+                if ("file".equals(root.getProtocol())) {
+                    indexDirectory(new File(root.toURI()), "", result);
+                } else if ("jar".equals(root.getProtocol())) {
+                    indexJar(root, result);
+                } else {
+                    //the order of the resources can only be guaranteed when all the roots are indexed
+                    logger.debug("cannot index {}", root);
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not index classpath resources in " + basePath, e);
+            return null;
+        } catch (URISyntaxException e) {
+            logger.warn("Could not index classpath resources in " + basePath, e);
+            return null;
+        }
+        logger.debug("indexed {} classpath resources in {} millis", result.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static void indexDirectory(File dir, String prefix, Map<String, Resource> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                indexDirectory(file, name + '/', result);
+            } else if (!result.containsKey(name)) {
+                result.put(name, new FileResource(file));
+            }
+        }
+    }
+
+    /**
+     * The jar file is opened through the cached connection that is shared by all the jar URLs in the JVM (the same one
+     * that reads the resources that are not indexed), so indexing does not keep a jar file open per reader.
+     * The indexed entries are read directly from that shared jar file, which must therefore never be closed here.
+     */
+    private void indexJar(URL root, Map<String, Resource> result) throws IOException {
+        JarFile jarFile = ((JarURLConnection) root.openConnection()).getJarFile();
+        for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!entry.isDirectory() && name.startsWith(basePath)) {
+                name = name.substring(basePath.length());
+                if (!result.containsKey(name)) {
+                    result.put(name, new JarResource(jarFile, entry));
+                }
+            }
+        }
     }
 
     /**
@@ -151,4 +301,87 @@ public class ClasspathResourceReader implements ResourceReader {
         result = 31 * result + (encoding != null ? encoding.hashCode() : 0);
         return result;
     }
+
+    private abstract static class Resource {
+        abstract long lastModified();
+
+        /**
+         * @return a stream to read the resource, or null if the resource does not exist anymore
+         */
+        abstract InputStream open() throws IOException;
+    }
+
+    private static class FileResource extends Resource {
+        private final File file;
+
+        FileResource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        long lastModified() {
+            long lastModified = file.lastModified();
+            return (lastModified != 0) ? lastModified : Long.MAX_VALUE;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class JarResource extends Resource {
+        private final JarFile jarFile;
+        private final JarEntry entry;
+
+        JarResource(JarFile jarFile, JarEntry entry) {
+            this.jarFile = jarFile;
+            this.entry = entry;
+        }
+
+        @Override
+        long lastModified() {
+            long time = entry.getTime();
+            return (time != -1) ? time : Long.MIN_VALUE;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return jarFile.getInputStream(entry);
+        }
+    }
+
+    private static class UrlResource extends Resource {
+        private final URL url;
+
+        UrlResource(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        long lastModified() {
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    return new File(url.toURI()).lastModified();
+                }
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection) {
+                    long time = ((JarURLConnection) connection).getJarEntry().getTime();
+                    return (time != -1) ? time : Long.MIN_VALUE;
+                }
+            } catch (Exception e) {
+                logger.debug("cannot determine the timestamp of {}", url);
+            }
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return url.openStream();
+        }
+    }
 }
@@ -17,14 +17,29 @@
 package com.github.houbie.lesscss.resourcereader;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * ResourceReader implementation that searches multiple paths by delegating to a list of other ResourceReaders
+ * <p/>
+ * When the routing memo is enabled, the reader remembers which delegate resolved a location and asks that delegate first
+ * the next time. The other delegates are only asked again when the remembered delegate cannot resolve the location anymore,
+ * so a resource that is added later to a preceding delegate is only found after {@link #clearRoutes()}.
  *
  * @author Ivo Houbrechts
  */
 public class CombiningResourceReader implements ResourceReader {
+    private static final int MAX_ROUTES = 10000;
+
     private ResourceReader[] resourceReaders;
+    //a tuning parameter: it is not serialized, so that it does not change the cache keys of the compilation units
+    private transient boolean routingMemo;
+
+    private transient Map<String, Integer> routes;
+    private transient long[] hits;
+    private transient long misses;
 
 
     /**
@@ -39,44 +54,172 @@ public class CombiningResourceReader implements ResourceReader {
 
     @Override
     public boolean canRead(String location) {
-        for (ResourceReader resourceReader : resourceReaders) {
-            if (resourceReader.canRead(location)) {
+        int route = getRoute(location);
+        if (route >= 0) {
+            if (resourceReaders[route].canRead(location)) {
+                resolved(location, route);
+                return true;
+            }
+            removeRoute(location);
+        }
+        for (int i = 0; i < resourceReaders.length; i++) {
+            if (i != route && resourceReaders[i].canRead(location)) {
+                resolved(location, i);
                 return true;
             }
         }
+        unresolved();
         return false;
     }
 
     @Override
     public String read(String location) throws IOException {
-        for (ResourceReader resourceReader : resourceReaders) {
-            String result = resourceReader.read(location);
+        int route = getRoute(location);
+        if (route >= 0) {
+            String result = resourceReaders[route].read(location);
             if (result != null) {
+                resolved(location, route);
                 return result;
             }
+            removeRoute(location);
+        }
+        for (int i = 0; i < resourceReaders.length; i++) {
+            if (i != route) {
+                String result = resourceReaders[i].read(location);
+                if (result != null) {
+                    resolved(location, i);
+                    return result;
+                }
+            }
         }
+        unresolved();
         return null;
     }
 
     @Override
     public byte[] readBytes(String location) throws IOException {
-        for (ResourceReader resourceReader : resourceReaders) {
-            byte[] result = resourceReader.readBytes(location);
+        int route = getRoute(location);
+        if (route >= 0) {
+            byte[] result = resourceReaders[route].readBytes(location);
             if (result != null) {
+                resolved(location, route);
                 return result;
             }
+            removeRoute(location);
+        }
+        for (int i = 0; i < resourceReaders.length; i++) {
+            if (i != route) {
+                byte[] result = resourceReaders[i].readBytes(location);
+                if (result != null) {
+                    resolved(location, i);
+                    return result;
+                }
+            }
         }
+        unresolved();
         return null;
     }
 
     @Override
     public long lastModified(String location) {
-        for (ResourceReader resourceReader : resourceReaders) {
-            long result = resourceReader.lastModified(location);
+        int route = getRoute(location);
+        if (route >= 0) {
+            long result = resourceReaders[route].lastModified(location);
             if (result != Long.MAX_VALUE) {
+                resolved(location, route);
                 return result;
             }
+            removeRoute(location);
         }
+        for (int i = 0; i < resourceReaders.length; i++) {
+            if (i != route) {
+                long result = resourceReaders[i].lastModified(location);
+                if (result != Long.MAX_VALUE) {
+                    resolved(location, i);
+                    return result;
+                }
+            }
+        }
+        unresolved();
         return Long.MAX_VALUE;
     }
+
+    /**
+     * @return the index of the delegate that resolved the location before, or -1
+     */
+    private synchronized int getRoute(String location) {
+        if (!routingMemo) {
+            return -1;
+        }
+        Integer route = getRoutes().get(location);
+        return (route != null) ? route : -1;
+    }
+
+    private synchronized void resolved(String location, int route) {
+        getHitsArray()[route]++;
+        if (routingMemo) {
+            getRoutes().put(location, route);
+            if (routes.size() > MAX_ROUTES) {
+                Iterator<Integer> eldest = routes.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private synchronized void removeRoute(String location) {
+        getRoutes().remove(location);
+    }
+
+    private synchronized void unresolved() {
+        misses++;
+    }
+
+    private Map<String, Integer> getRoutes() {
+        //the memo is not serialized
+        if (routes == null) {
+            routes = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+        }
+        return routes;
+    }
+
+    private long[] getHitsArray() {
+        if (hits == null) {
+            hits = new long[resourceReaders.length];
+        }
+        return hits;
+    }
+
+    /**
+     * Forget which delegates resolved the locations
+     */
+    public synchronized void clearRoutes() {
+        getRoutes().clear();
+    }
+
+    public synchronized boolean isRoutingMemo() {
+        return routingMemo;
+    }
+
+    /**
+     * @param routingMemo true to remember which delegate resolved a location. Default: false
+     */
+    public synchronized void setRoutingMemo(boolean routingMemo) {
+        this.routingMemo = routingMemo;
+        getRoutes().clear();
+    }
+
+    /**
+     * @return for every delegate, the number of accesses that it resolved
+     */
+    public synchronized long[] getHits() {
+        return getHitsArray().clone();
+    }
+
+    /**
+     * @return the number of accesses that none of the delegates could resolve
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
 }
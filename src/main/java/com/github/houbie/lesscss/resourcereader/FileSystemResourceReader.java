@@ -21,22 +21,33 @@ import com.github.houbie.lesscss.utils.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.*;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * ResourceReader implementation that reads files relative to one or more base directories.
+ * <p/>
+ * Resolving a location checks the base directories one by one. When a resolution cache TTL is set, the resolved file
+ * (or the fact that the location cannot be resolved) is remembered during that time, so that repeated lookups of the
+ * same location do not access the file system. A file that is created in the meantime is only found after the TTL.
+ * A remembered file that has been removed is resolved again immediately.
  *
  * @author Ivo Houbrechts
  */
 public class FileSystemResourceReader implements ResourceReader {
     private static Logger logger = LoggerFactory.getLogger(FileSystemResourceReader.class);
 
+    private static final int MAX_RESOLUTIONS = 10000;
+
     private File[] baseDirs;
     private String encoding;
+    //a tuning parameter: it is not serialized and not part of the identity, so that it does not change cache keys
+    private transient long resolutionCacheTtl;
+
+    private transient Map<String, Resolution> resolutions;
 
     /**
      * Construct a new FileSystemResourceReader for the current directory and java's default character encoding
@@ -89,32 +100,86 @@ public class FileSystemResourceReader implements ResourceReader {
     @Override
     public boolean canRead(String location) {
         File file = resolve(location);
+        if (file != null && !file.exists() && resolutionCacheTtl > 0) {
+            //the cached file does not exist anymore
+            file = resolveAgain(location);
+        }
         return file != null && file.exists();
     }
 
     @Override
     public String read(String location) throws IOException {
         File file = resolve(location);
-        if (file != null) {
-            logger.debug("reading {}", location);
+        if (file == null) {
+            return null;
+        }
+        logger.debug("reading {}", location);
+        try {
             return IOUtils.read(file, encoding);
+        } catch (FileNotFoundException e) {
+            file = resolveAgain(location, e);
+            return (file != null) ? IOUtils.read(file, encoding) : null;
         }
-        return null;
     }
 
     @Override
     public byte[] readBytes(String location) throws IOException {
         File file = resolve(location);
-        if (file != null) {
-            logger.debug("reading bytes {}", location);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            IOUtils.copyLarge(new FileInputStream(file), bos);
-            return bos.toByteArray();
+        if (file == null) {
+            return null;
+        }
+        logger.debug("reading bytes {}", location);
+        try {
+            return IOUtils.readBytes(file);
+        } catch (FileNotFoundException e) {
+            file = resolveAgain(location, e);
+            return (file != null) ? IOUtils.readBytes(file) : null;
         }
-        return null;
     }
 
     private File resolve(String location) {
+        if (resolutionCacheTtl <= 0) {
+            return resolveUncached(location);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Resolution resolution = getResolutions().get(location);
+            if (resolution != null && now - resolution.timestamp < resolutionCacheTtl) {
+                return resolution.file;
+            }
+        }
+        File file = resolveUncached(location);
+        synchronized (this) {
+            getResolutions().put(location, new Resolution(file, now));
+            if (resolutions.size() > MAX_RESOLUTIONS) {
+                Iterator<Resolution> eldest = resolutions.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Called when a resolved file cannot be opened: a cached resolution may be outdated.
+     *
+     * @throws FileNotFoundException the original exception if the resolution was not cached
+     */
+    private File resolveAgain(String location, FileNotFoundException e) throws FileNotFoundException {
+        if (resolutionCacheTtl <= 0) {
+            throw e;
+        }
+        return resolveAgain(location);
+    }
+
+    private File resolveAgain(String location) {
+        synchronized (this) {
+            getResolutions().remove(location);
+        }
+        return resolve(location);
+    }
+
+    private File resolveUncached(String location) {
         File file = resolveRelative(location);
         if (file == null) {
             file = resolveAbsolute(location);
@@ -141,7 +206,47 @@ public class FileSystemResourceReader implements ResourceReader {
     @Override
     public long lastModified(String location) {
         File file = resolve(location);
-        return (file == null) ? Long.MAX_VALUE : file.lastModified();
+        if (file == null) {
+            return Long.MAX_VALUE;
+        }
+        long lastModified = file.lastModified();
+        if (lastModified == 0 && resolutionCacheTtl > 0) {
+            //the file does not exist anymore
+            file = resolveAgain(location);
+            lastModified = (file == null) ? Long.MAX_VALUE : file.lastModified();
+        }
+        return lastModified;
+    }
+
+    private Map<String, Resolution> getResolutions() {
+        //the cache is not serialized
+        if (resolutions == null) {
+            resolutions = new LinkedHashMap<String, Resolution>(16, 0.75f, true);
+        }
+        return resolutions;
+    }
+
+    /**
+     * Forget all the cached resolutions
+     */
+    public synchronized void clearResolutionCache() {
+        getResolutions().clear();
+    }
+
+    /**
+     * @return the time in milliseconds during which resolved locations are cached, 0 if they are not cached
+     */
+    public long getResolutionCacheTtl() {
+        return resolutionCacheTtl;
+    }
+
+    /**
+     * @param resolutionCacheTtl the time in milliseconds during which resolved locations (also the ones that cannot be
+     *                           resolved) are cached, 0 to disable the cache. Default: 0
+     */
+    public synchronized void setResolutionCacheTtl(long resolutionCacheTtl) {
+        this.resolutionCacheTtl = resolutionCacheTtl;
+        getResolutions().clear();
     }
 
     /**
@@ -177,4 +282,14 @@ public class FileSystemResourceReader implements ResourceReader {
         result = 31 * result + (encoding != null ? encoding.hashCode() : 0);
         return result;
     }
+
+    private static class Resolution {
+        private final File file;
+        private final long timestamp;
+
+        Resolution(File file, long timestamp) {
+            this.file = file;
+            this.timestamp = timestamp;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.resourcereader;
+
+/**
+ * The result of {@link TrackingResourceReader#resolve(String, String)}: the location at which a resource was found,
+ * together with its content and its lastModified timestamp.
+ * <p/>
+ * The timestamp of a resource that was resolved by a TrackingResourceReader is only looked up when it is asked for.
+ *
+ * @author Ivo Houbrechts
+ */
+public class ResolvedResource {
+    //files that are modified within this time before they were read might have been modified while they were read
+    private static final long TIMESTAMP_GRANULARITY = 1000;
+
+    private final String location;
+    private final String content;
+    private final byte[] bytes;
+    private final ResourceReader resourceReader;
+    private final long readTimestamp;
+    private long lastModified;
+    private boolean lastModifiedKnown;
+
+    /**
+     * @param location     the location that resolved
+     * @param lastModified the timestamp of the resource before it was read
+     * @param content      the content of the resource
+     */
+    public ResolvedResource(String location, long lastModified, String content) {
+        this(location, content, null, null, 0);
+        this.lastModified = lastModified;
+        lastModifiedKnown = true;
+    }
+
+    /**
+     * @param location     the location that resolved
+     * @param lastModified the timestamp of the resource before it was read
+     * @param bytes        the content of the resource
+     */
+    public ResolvedResource(String location, long lastModified, byte[] bytes) {
+        this(location, null, bytes, null, 0);
+        this.lastModified = lastModified;
+        lastModifiedKnown = true;
+    }
+
+    /**
+     * @param resourceReader the ResourceReader that read the resource, it is asked for the timestamp on demand
+     * @param readTimestamp  the time just before the resource was read
+     */
+    ResolvedResource(String location, String content, byte[] bytes, ResourceReader resourceReader, long readTimestamp) {
+        this.location = location;
+        this.content = content;
+        this.bytes = bytes;
+        this.resourceReader = resourceReader;
+        this.readTimestamp = readTimestamp;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the timestamp of the resource, or Long.MIN_VALUE when the resource may have been modified or removed
+     * while it was read
+     */
+    public synchronized long getLastModified() {
+        if (!lastModifiedKnown) {
+            lastModified = resourceReader.lastModified(location);
+            //MIN_VALUE and MAX_VALUE are used for resources without timestamp and for resources that cannot be resolved
+            if (lastModified == Long.MAX_VALUE || (lastModified != Long.MIN_VALUE && lastModified > readTimestamp - TIMESTAMP_GRANULARITY)) {
+                lastModified = Long.MIN_VALUE;
+            }
+            lastModifiedKnown = true;
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return the content, or null if the resource was read into a byte array
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @return the content, or null if the resource was read into a String
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolvedResource{" +
+                "location=" + location +
+                '}';
+    }
+}
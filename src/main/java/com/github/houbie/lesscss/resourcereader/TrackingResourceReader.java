@@ -29,6 +29,10 @@ import java.util.List;
  * ResourceReader implementation that keeps track of the resources that it reads.
  * Used to capture the import statements during a LESS compilation.
  * The actual reading of resources is delegated to another ResourceReader.
+ * <p/>
+ * The compiler resolves imports with {@link #resolve(String, String)}, which looks up an import relative to the
+ * ResourceReader and then relative to the directory of the importing file in a single call. Only the location that
+ * actually resolved is tracked.
  *
  * @author Ivo Houbrechts
  */
@@ -66,6 +70,84 @@ public class TrackingResourceReader implements ResourceReader {
         return (resourceReader != null) ? resourceReader.readBytes(location) : null;
     }
 
+    /**
+     * Resolve a location, first as is and then relative to the given directory, and read the resource into a String.
+     * The location that resolved is added to the read resources.
+     *
+     * @param location  the location of the resource
+     * @param directory the directory of the file that refers to the resource, may be empty
+     * @return the resolved resource, or null if the resource cannot be resolved
+     * @throws IOException if the resource cannot be read
+     */
+    public ResolvedResource resolve(String location, String directory) throws IOException {
+        logger.debug("resolving @import " + location);
+        if (resourceReader == null) {
+            throw new RuntimeException("Error in less compilation: import of " + location + " failed because no ResourceReader is configured");
+        }
+        ResolvedResource result = resolve(location, directory, false);
+        if (result != null) {
+            imports.add(normalize(result.getLocation()));
+        }
+        return result;
+    }
+
+    /**
+     * Resolve a location, first as is and then relative to the given directory, and read the resource into a byte array.
+     *
+     * @param location  the location of the resource
+     * @param directory the directory of the file that refers to the resource, may be empty
+     * @return the resolved resource, or null if the resource cannot be resolved
+     * @throws IOException if the resource cannot be read
+     */
+    public ResolvedResource resolveBytes(String location, String directory) throws IOException {
+        return (resourceReader != null) ? resolve(location, directory, true) : null;
+    }
+
+    private ResolvedResource resolve(String location, String directory, boolean bytes) throws IOException {
+        ResolvedResource result = fetch(location, bytes);
+        if (result == null && directory != null && directory.length() > 0) {
+            result = fetch(join(directory, location), bytes);
+        }
+        return result;
+    }
+
+    /**
+     * Every location is accessed only once: a read that returns null is a miss. The timestamp of a resource that is
+     * found is only looked up when it is needed (see {@link ResolvedResource#getLastModified()}).
+     */
+    private ResolvedResource fetch(String location, boolean bytes) throws IOException {
+        long readTimestamp = System.currentTimeMillis();
+        if (bytes) {
+            byte[] content = resourceReader.readBytes(location);
+            return (content != null) ? new ResolvedResource(location, null, content, resourceReader, readTimestamp) : null;
+        }
+        String content = resourceReader.read(location);
+        return (content != null) ? new ResolvedResource(location, content, null, resourceReader, readTimestamp) : null;
+    }
+
+    /**
+     * Joins a directory and a location the way the compiler does: '.' segments are removed and '..' segments are
+     * collapsed with the preceding segment.
+     */
+    static String join(String directory, String location) {
+        List<String> result = new ArrayList<String>();
+        for (String part : (directory + '/' + location).split("[/\\\\]", -1)) {
+            if (part.equals("..") && !result.isEmpty() && !result.get(result.size() - 1).equals("..")) {
+                result.remove(result.size() - 1);
+            } else if ((part.length() > 0 || result.isEmpty()) && !part.equals(".")) {
+                result.add(part);
+            }
+        }
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) {
+                joined.append('/');
+            }
+            joined.append(result.get(i));
+        }
+        return joined.toString();
+    }
+
     public String normalize(String location) {
         try {
             return new URI(location).normalize().getPath();
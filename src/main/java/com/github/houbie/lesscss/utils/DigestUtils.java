@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility functions to calculate SHA-256 digests of contents.
+ *
+ * @author Ivo Houbrechts
+ */
+public class DigestUtils {
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * @param content the content to digest, may be null
+     * @return the hexadecimal SHA-256 digest of the UTF-8 encoded content, or null if the content is null
+     */
+    public static String digest(String content) {
+        if (content == null) {
+            return null;
+        }
+        return digest(toUtf8(content));
+    }
+
+    /**
+     * @param content the content to digest, may be null
+     * @return the hexadecimal SHA-256 digest of the content, or null if the content is null
+     */
+    public static String digest(byte[] content) {
+        if (content == null) {
+            return null;
+        }
+        return toHex(newMessageDigest().digest(content));
+    }
+
+    /**
+     * @return a new SHA-256 MessageDigest
+     */
+    public static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            //every java platform has to support SHA-256
+            throw new IllegalStateException(ALGORITHM + " is not supported", e);
+        }
+    }
+
+    /**
+     * Add the UTF-8 encoded content, preceded by its length, to the digest.
+     * The length prevents that different sequences of contents result in the same digest (f.i. "ab", "c" and "a", "bc").
+     *
+     * @param messageDigest the digest to update
+     * @param content       the content to add, may be null
+     */
+    public static void update(MessageDigest messageDigest, String content) {
+        if (content == null) {
+            messageDigest.update(intToBytes(-1));
+            return;
+        }
+        byte[] bytes = toUtf8(content);
+        messageDigest.update(intToBytes(bytes.length));
+        messageDigest.update(bytes);
+    }
+
+    /**
+     * @param bytes the bytes to convert
+     * @return the lower case hexadecimal representation of the bytes
+     */
+    public static String toHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    private static byte[] toUtf8(String content) {
+        try {
+            return content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static byte[] intToBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+}
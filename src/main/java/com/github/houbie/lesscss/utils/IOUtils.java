@@ -18,16 +18,37 @@ package com.github.houbie.lesscss.utils;
 
 import java.io.*;
 import java.net.URL;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.*;
+import java.security.MessageDigest;
 
 /**
  * Utility class to read/write files and streams.
  * Most of the code is copied from Apache Commons IO
+ * <p/>
+ * Files are read through a FileChannel into a buffer that is sized from the length of the file and decoded in one pass.
+ * Files are not mapped into memory, because a mapping keeps the file locked on Windows until it is garbage collected.
+ * Strings are written in chunks, so that no copy of a large String is made.
+ * <p/>
+ * {@link #writeFileIfChanged(String, File, String)} writes a file atomically and leaves it untouched when its content
+ * does not change.
  *
  * @author Ivo Houbrechts
  */
 public class IOUtils {
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
 
+    //CharsetDecoders are not thread safe, so every thread keeps the last one that it used
+    private static final ThreadLocal<CharsetDecoder> decoders = new ThreadLocal<CharsetDecoder>();
+    private static final ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<CharsetEncoder>();
+
     public static String read(URL url) throws IOException {
         return read(url, null);
     }
@@ -51,16 +72,118 @@ public class IOUtils {
     }
 
     public static String read(File file, String encoding) throws IOException {
-        InputStream is = null;
-        StringBuilderWriter writer = new StringBuilderWriter();
+        FileInputStream inputStream = new FileInputStream(file);
         try {
-            is = new FileInputStream(file);
-            copy(is, writer, encoding);
-            return writer.toString();
+            return decode(read(inputStream.getChannel()), getDecoder(encoding));
         } finally {
-            if (is != null) {
-                is.close();
+            inputStream.close();
+        }
+    }
+
+    public static byte[] readBytes(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            ByteBuffer buffer = read(inputStream.getChannel());
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+            byte[] result = new byte[buffer.remaining()];
+            buffer.get(result);
+            return result;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            //read until the buffer is full
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Release a memory mapping immediately instead of when the buffer is garbage collected, so that the mapped file can
+     * be renamed or deleted on Windows. The buffer must not be used anymore afterwards.
+     * This is best effort: the mapping is left to the garbage collector when the JVM does not support it.
+     *
+     * @param buffer a buffer that was returned by {@link FileChannel#map(FileChannel.MapMode, long, long)}
+     * @return true if the mapping was released
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                //Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return true;
+            } catch (NoSuchMethodException e) {
+                //Java 8 and earlier
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner == null) {
+                    return false;
+                }
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return true;
             }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, CharsetDecoder decoder) throws IOException {
+        decoder.reset();
+        CharBuffer chars = CharBuffer.allocate((int) (buffer.remaining() * (double) decoder.maxCharsPerByte()));
+        CoderResult result = decoder.decode(buffer, chars, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(chars);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        chars.flip();
+        return chars.toString();
+    }
+
+    private static CharsetDecoder getDecoder(String encoding) throws UnsupportedEncodingException {
+        Charset charset = getCharset(encoding);
+        CharsetDecoder decoder = decoders.get();
+        if (decoder == null || !decoder.charset().equals(charset)) {
+            //replace malformed input like an InputStreamReader does
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.set(decoder);
+        }
+        return decoder;
+    }
+
+    private static CharsetEncoder getEncoder(String encoding) throws UnsupportedEncodingException {
+        Charset charset = getCharset(encoding);
+        CharsetEncoder encoder = encoders.get();
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            //replace unmappable characters like an OutputStreamWriter does
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.set(encoder);
+        }
+        return encoder;
+    }
+
+    private static Charset getCharset(String encoding) throws UnsupportedEncodingException {
+        try {
+            return (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
         }
     }
 
@@ -130,13 +253,131 @@ public class IOUtils {
             destination.createNewFile();
         }
         FileOutputStream fos = new FileOutputStream(destination);
-        write(content, fos, charsetName);
+        try {
+            write(content, fos.getChannel(), charsetName);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Write a String to a temporary file in the directory of the destination and rename it to the destination, so that
+     * readers never see a partially written file. Nothing is written when the destination already has the same content,
+     * so that its timestamp does not change.
+     *
+     * @return true if the destination was written, false if its content was the same
+     */
+    public static boolean writeFileIfChanged(String content, File destination, String charsetName) throws IOException {
+        if (destination.isFile()) {
+            DigestingChannel digestingChannel = new DigestingChannel();
+            write(content, digestingChannel, charsetName);
+            if (digestingChannel.size == destination.length() && MessageDigest.isEqual(digestingChannel.messageDigest.digest(), digest(destination))) {
+                return false;
+            }
+        }
+        File dir = destination.getAbsoluteFile().getParentFile();
+        String name = destination.getName();
+        File tmp = File.createTempFile(name.length() >= 3 ? name : name + "___", ".tmp", dir);
+        try {
+            writeFile(content, tmp, charsetName);
+            if (!tmp.renameTo(destination)) {
+                //on Windows, a file cannot be renamed to an existing file
+                if (!destination.delete() || !tmp.renameTo(destination)) {
+                    throw new IOException("cannot rename " + tmp + " to " + destination);
+                }
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+        return true;
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE * 2];
+            int n;
+            while (-1 != (n = inputStream.read(buffer))) {
+                messageDigest.update(buffer, 0, n);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return messageDigest.digest();
+    }
+
+    /**
+     * Channel that digests and counts the bytes that are written, so that encoded content can be compared with a file
+     * without keeping it in memory.
+     */
+    private static class DigestingChannel implements WritableByteChannel {
+        private final MessageDigest messageDigest = DigestUtils.newMessageDigest();
+        private long size;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            messageDigest.update(src);
+            size += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
     public static void write(String content, OutputStream outputStream, String charsetName) throws IOException {
-        OutputStreamWriter writer = (charsetName != null) ? new OutputStreamWriter(outputStream, charsetName) : new OutputStreamWriter(outputStream);
-        copyLarge(new StringReader(content), writer);
+        try {
+            write(content, Channels.newChannel(outputStream), charsetName);
+            outputStream.flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Encode a String in chunks and write it to a channel. The channel is not closed.
+     */
+    public static void write(String content, WritableByteChannel channel, String charsetName) throws IOException {
+        CharsetEncoder encoder = getEncoder(charsetName);
+        encoder.reset();
+        CharBuffer chars = CharBuffer.wrap(content);
+        ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE * 2);
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            writeFully(buffer, channel);
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            writeFully(buffer, channel);
+        } while (result.isOverflow());
+    }
+
+    private static void writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write a String in chunks to a Writer and flush it. The Writer is not closed.
+     */
+    public static void write(String content, Writer writer) throws IOException {
+        for (int offset = 0; offset < content.length(); offset += DEFAULT_BUFFER_SIZE) {
+            writer.write(content, offset, Math.min(DEFAULT_BUFFER_SIZE, content.length() - offset));
+        }
         writer.flush();
-        writer.close();
     }
 }
@@ -62,7 +62,7 @@ var javaMapToObject = function (map) {
             }
         },
 
-        compile = function (source, compilationOptions, importReader) {
+        compile = function (source, compilationOptions, importReader, importCache) {
             var result = {
                         css: null,
                         sourceMapContent: null,
@@ -85,7 +85,9 @@ var javaMapToObject = function (map) {
                         relativeUrls: compilationOptions.options.relativeUrls,
                         strictMath: compilationOptions.options.strictMath,
                         strictUnits: compilationOptions.options.strictUnits,
-                        filename: less.modules.path.basename(sourceFileName)
+                        filename: less.modules.path.basename(sourceFileName),
+                        fileLoader: fileLoader,
+                        importCache: importCache || null
                     },
                     additionalData = {
                         globalVars: javaMapToObject(compilationOptions.options.globalVars),
@@ -109,7 +111,14 @@ var javaMapToObject = function (map) {
                 entryPath: sourceFileName, //absolute path to the entry file
 
                 readFileAsString: function (file) {
-                    var data = importReader.read(file) || importReader.read(less.modules.path.join(sourceDir, file));
+                    var data = null;
+                    if (importReader.resolve) {
+                        //TrackingResourceReader: resolve relative to the reader and to the source directory in one call
+                        var resource = importReader.resolve(file, sourceDir);
+                        data = resource && resource.getContent();
+                    } else {
+                        data = importReader.read(file) || importReader.read(less.modules.path.join(sourceDir, file));
+                    }
                     if (data == null) {
                         throw {type: 'File', message: "'" + file + "' wasn't found"};
                     }
@@ -117,8 +126,14 @@ var javaMapToObject = function (map) {
                 },
 
                 readFileAsBytes: function (file) {
-                    var data = importReader.readBytes(file) || importReader.readBytes(less.modules.path.join(sourceDir, file));
-                    if (data === null) {
+                    var data = null;
+                    if (importReader.resolveBytes) {
+                        var resource = importReader.resolveBytes(file, sourceDir);
+                        data = resource && resource.getBytes();
+                    } else {
+                        data = importReader.readBytes(file) || importReader.readBytes(less.modules.path.join(sourceDir, file));
+                    }
+                    if (data == null) {
                         throw {type: 'File', message: "'" + file + "' wasn't found"};
                     }
                     return data;
@@ -153,7 +168,12 @@ var javaMapToObject = function (map) {
             return result;
         };
 
-less.Parser.fileLoader = function (file, currentFileInfo, callback, env) {
+/**
+ * Loads imported files through the readFileAsString function of the current file info.
+ * It is passed to the parser with the options of each compilation instead of being installed as less.Parser.fileLoader,
+ * so that the less library itself is never modified after initialization and can be shared between threads.
+ */
+var fileLoader = function (file, currentFileInfo, callback, env) {
 
     var href = file;
     if (currentFileInfo && currentFileInfo.currentDirectory && !/^\//.test(file)) {
@@ -26,7 +26,7 @@ less.mode = 'rhino';
 
         function doLog(out, type) {
             return function() {
-                var args = java.lang.reflect.Array.newInstance(java.lang.Object, arguments.length - 1);
+                var args = java.lang.reflect.Array.newInstance(java.lang.Class.forName('java.lang.Object'), arguments.length - 1);
                 var format = arguments[0];
                 var conversionIndex = 0;
                 // need to look for %d (integer) conversions because in Javascript all numbers are doubles
@@ -117,9 +117,9 @@ less.mode = 'rhino';
                     if (enc === 'base64') {
                         return encodeBase64Bytes(buffer);
                     } else if (enc) {
-                        return java.lang.String["(byte[],java.lang.String)"](buffer, enc);
+                        return String(new java.lang.String(buffer, enc));
                     } else {
-                        return java.lang.String["(byte[])"](buffer);
+                        return String(new java.lang.String(buffer));
                     }
                 }
             };
@@ -206,6 +206,41 @@ less.Parser = function Parser(env) {
         env = new tree.parseEnv(env);
     }
 
+    // lesscss - everything that influences the parse tree of an imported file
+    function importCacheKey(fullPath, fileInfo, env) {
+        return [fullPath, fileInfo.currentDirectory, fileInfo.rootpath, fileInfo.relativeUrls, !!fileInfo.reference,
+            env.dumpLineNumbers, env.optimization, env.strictImports].join('|');
+    }
+
+    // lesscss - deep copy of a parse tree, in which the references to one file info are replaced by another.
+    // Compilations modify their trees (f.i. the import visitor sets the root of import nodes), so they never get the
+    // cached tree itself. Parse trees do not contain cycles; only arrays, plain objects and tree nodes are copied,
+    // the prototypes of the tree nodes (f.i. the parent of a mixin definition) are shared.
+    function copyParseTree(node, fromFileInfo, toFileInfo) {
+        if (node === fromFileInfo && fromFileInfo) {
+            return toFileInfo;
+        }
+        if (typeof node !== 'object' || node === null || (Object.prototype.hasOwnProperty.call(node, 'type') && typeof node.type === 'string')) {
+            return node;
+        }
+        var copy, prototype, property;
+        if (Array.isArray(node)) {
+            copy = [];
+        } else {
+            prototype = Object.getPrototypeOf(node);
+            if (prototype !== Object.prototype && !(prototype && typeof prototype.type === 'string')) {
+                return node;
+            }
+            copy = Object.create(prototype);
+        }
+        for (property in node) {
+            if (Object.prototype.hasOwnProperty.call(node, property)) {
+                copy[property] = copyParseTree(node[property], fromFileInfo, toFileInfo);
+            }
+        }
+        return copy;
+    }
+
     var imports = this.imports = {
         paths: env.paths || [],  // Search paths, when importing
         queue: [],               // Files which haven't been imported yet
@@ -233,7 +268,7 @@ less.Parser = function Parser(env) {
             if (less.Parser.importer) {
                 less.Parser.importer(path, currentFileInfo, fileParsedFunc, env);
             } else {
-                less.Parser.fileLoader(path, currentFileInfo, function(e, contents, fullPath, newFileInfo) {
+                (env.fileLoader || less.Parser.fileLoader)(path, currentFileInfo, function(e, contents, fullPath, newFileInfo) {
                     if (e) {fileParsedFunc(e); return;}
 
                     var newEnv = new tree.parseEnv(env);
@@ -249,9 +284,20 @@ less.Parser = function Parser(env) {
                     if (importOptions.inline) {
                         fileParsedFunc(null, contents, fullPath);
                     } else {
-                        new(less.Parser)(newEnv).parse(contents, function (e, root) {
-                            fileParsedFunc(e, root, fullPath);
-                        });
+                        var cacheKey = env.importCache ? importCacheKey(fullPath, newFileInfo, env) : null,
+                            cached = cacheKey ? env.importCache.take(cacheKey, contents) : null;
+                        if (cached) {
+                            // the cached tree is never handed out: the compilation gets a copy with its own file info
+                            fileParsedFunc(null, copyParseTree(cached.root, cached.fileInfo, newFileInfo), fullPath);
+                        } else {
+                            new(less.Parser)(newEnv).parse(contents, function (e, root) {
+                                if (!e && cacheKey) {
+                                    var fileInfo = copyParseTree(newFileInfo, null, null);
+                                    env.importCache.add(cacheKey, contents, {root: copyParseTree(root, newFileInfo, fileInfo), fileInfo: fileInfo});
+                                }
+                                fileParsedFunc(e, root, fullPath);
+                            });
+                        }
                     }
                 }, env);
             }
@@ -6105,6 +6151,8 @@ tree.Variable.prototype = {
         'javascriptEnabled',// option - whether JavaScript is enabled. if undefined, defaults to true
         'mime',             // browser only - mime type for sheet import
         'useFileCache',     // browser only - whether to use the per file session cache
+        'fileLoader',       // lesscss - function that loads imported files, overrides less.Parser.fileLoader
+        'importCache',      // lesscss - cache of the parse trees of imported files, shared between compilations
         'currentFileInfo'   // information about the current file - for error reporting and importing and making urls relative etc.
     ];
 
@@ -6225,8 +6273,7 @@ tree.Variable.prototype = {
 
 (function (tree) {
 
-    var _visitArgs = { visitDeeper: true },
-        _hasIndexed = false;
+    var _hasIndexed = false;
 
     function _noop(node) {
         return node;
@@ -6258,6 +6305,7 @@ tree.Variable.prototype = {
     tree.visitor = function(implementation) {
         this._implementation = implementation;
         this._visitFnCache = [];
+        this._visitArgs = { visitDeeper: true }; // lesscss - per visitor instead of shared, for concurrent compilations
 
         if (!_hasIndexed) {
             indexNodeTypes(tree, 1);
@@ -6282,7 +6330,7 @@ tree.Variable.prototype = {
                 outAryIndex = aryIndx | 1,
                 func = visitFnCache[aryIndx],
                 funcOut = visitFnCache[outAryIndex],
-                visitArgs = _visitArgs,
+                visitArgs = this._visitArgs,
                 fnName;
 
             visitArgs.visitDeeper = true;
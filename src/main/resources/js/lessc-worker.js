@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Long running node.js worker for the CommandLineLesscCompilationEngine.
+ *
+ * Requests and responses are frames on stdin/stdout: a 32 bit big endian field count, followed by the fields.
+ * Every field is a 32 bit big endian byte length (-1 for null) followed by the UTF-8 bytes.
+ *
+ * request:  source, option name, option value, option name, option value, ...
+ * response: 'ok', css, source map, dependency, dependency, ...
+ *        or 'error', message
+ *
+ * Usage: node lessc-worker.js [path to the less module]
+ */
+var path = require('path'),
+    less = loadLess(process.argv[2]),
+    input = allocBuffer(0),
+    queue = [],
+    busy = false;
+
+//stdout is reserved for responses
+console.log = console.info = console.warn = console.error;
+
+//Buffer.alloc and Buffer.from replace the deprecated Buffer constructor in newer node.js versions
+function allocBuffer(size) {
+    return Buffer.alloc ? Buffer.alloc(size) : new Buffer(size);
+}
+
+function stringToBuffer(string) {
+    return Buffer.alloc ? Buffer.from(string, 'utf8') : new Buffer(string, 'utf8');
+}
+
+function loadLess(lessPath) {
+    if (lessPath) {
+        return require(lessPath);
+    }
+    try {
+        return require('less');
+    } catch (e) {
+        //global npm installation
+        return require(path.join(path.dirname(process.execPath), '..', 'lib', 'node_modules', 'less'));
+    }
+}
+
+function readFrame() {
+    var fieldCount, fields = [], offset = 4, i, length;
+    if (input.length < 4) {
+        return null;
+    }
+    fieldCount = input.readInt32BE(0);
+    for (i = 0; i < fieldCount; i++) {
+        if (input.length < offset + 4) {
+            return null;
+        }
+        length = input.readInt32BE(offset);
+        offset += 4;
+        if (length < 0) {
+            fields.push(null);
+        } else {
+            if (input.length < offset + length) {
+                return null;
+            }
+            fields.push(input.toString('utf8', offset, offset + length));
+            offset += length;
+        }
+    }
+    input = input.slice(offset);
+    return fields;
+}
+
+function writeFrame(fields) {
+    var buffers = [], header = allocBuffer(4), i, field, bytes;
+    header.writeInt32BE(fields.length, 0);
+    buffers.push(header);
+    for (i = 0; i < fields.length; i++) {
+        field = fields[i];
+        header = allocBuffer(4);
+        if (field === null || field === undefined) {
+            header.writeInt32BE(-1, 0);
+            buffers.push(header);
+        } else {
+            bytes = stringToBuffer(String(field));
+            header.writeInt32BE(bytes.length, 0);
+            buffers.push(header, bytes);
+        }
+    }
+    process.stdout.write(Buffer.concat(buffers));
+}
+
+function parseOptions(fields) {
+    var options = {paths: []}, additionalData = {globalVars: null, modifyVars: null}, i, name, value, target;
+    for (i = 1; i + 1 < fields.length; i += 2) {
+        name = fields[i];
+        value = fields[i + 1];
+        if (name === 'path') {
+            options.paths.push(value);
+        } else if (name.indexOf('globalVars.') === 0 || name.indexOf('modifyVars.') === 0) {
+            target = name.substring(0, name.indexOf('.'));
+            additionalData[target] = additionalData[target] || {};
+            additionalData[target][name.substring(target.length + 1)] = value;
+        } else if (value === 'true' || value === 'false') {
+            options[name] = (value === 'true');
+        } else if (/^[0-9]+$/.test(value)) {
+            options[name] = parseInt(value, 10);
+        } else {
+            options[name] = value;
+        }
+    }
+    return {options: options, additionalData: additionalData};
+}
+
+function formatError(e) {
+    if (less.formatError) {
+        return less.formatError(e, {color: false});
+    }
+    return e.message || String(e);
+}
+
+function compile(fields, done) {
+    var parsed = parseOptions(fields),
+        options = parsed.options,
+        sourceMap = null,
+        finished = false,
+        parser,
+        finish = function (response) {
+            if (!finished) {
+                finished = true;
+                done(response);
+            }
+        };
+
+    if (options.sourceMap) {
+        options.writeSourceMap = function (content) {
+            sourceMap = content;
+        };
+    }
+    try {
+        parser = new less.Parser(options);
+        parser.parse(fields[0], function (e, tree) {
+            var response;
+            try {
+                if (e) {
+                    throw e;
+                }
+                response = ['ok', options.dependenciesOnly ? '' : tree.toCSS(options), sourceMap].concat(Object.keys(parser.imports.files));
+            } catch (error) {
+                response = ['error', formatError(error)];
+            }
+            finish(response);
+        }, parsed.additionalData);
+    } catch (error) {
+        finish(['error', formatError(error)]);
+    }
+}
+
+function processQueue() {
+    var request;
+    if (busy || queue.length === 0) {
+        return;
+    }
+    busy = true;
+    request = queue.shift();
+    compile(request, function (response) {
+        writeFrame(response);
+        busy = false;
+        processQueue();
+    });
+}
+
+process.stdin.on('data', function (data) {
+    var frame;
+    input = Buffer.concat([input, data]);
+    while ((frame = readFrame()) !== null) {
+        queue.push(frame);
+    }
+    processQueue();
+});
+
+process.stdin.on('end', function () {
+    process.exit(0);
+});
+
+process.stdin.resume();
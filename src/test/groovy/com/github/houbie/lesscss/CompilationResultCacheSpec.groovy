@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss
+
+import com.github.houbie.lesscss.engine.LessCompilationEngine
+import com.github.houbie.lesscss.engine.RhinoLessCompilationEngine
+import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+import com.github.houbie.lesscss.resourcereader.ResourceReader
+import spock.lang.Specification
+
+import static com.github.houbie.lesscss.LessCompiler.CompilationDetails
+
+class CompilationResultCacheSpec extends Specification {
+    LessCompilationEngine engine = Mock(LessCompilationEngine)
+    LessCompilerImpl compiler = new LessCompilerImpl(engine)
+    File dir = new File('build/tmp/result-cache')
+    ResourceReader resourceReader = new FileSystemResourceReader(dir)
+    File imported = new File(dir, 'imported.less')
+
+    def setup() {
+        dir.mkdirs()
+        imported.text = '@color: #ff0000;'
+        imported.lastModified = 1000
+        compiler.resultCacheSize = 1000000
+    }
+
+    def "return cached results"() {
+        when:
+        def first = compiler.compileWithDetails('a {}', resourceReader, new Options(), 'a.less')
+        def second = compiler.compileWithDetails('a {}', resourceReader, new Options(), 'a.less')
+
+        then:
+        1 * engine.compile('a {}', _, _) >> { less, options, reader -> reader.read('imported.less'); new CompilationDetails('css', 'map') }
+        [first, second]*.result == ['css', 'css']
+        [first, second]*.sourceMap == ['map', 'map']
+        [first, second]*.imports == [['imported.less'], ['imported.less']]
+        compiler.resultCache.hits == 1
+        compiler.resultCache.misses == 1
+    }
+
+    def "compile again when the source, the options or the names differ"() {
+        when:
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+        compiler.compile('b {}', resourceReader, new Options(), 'a.less')
+        compiler.compile('a {}', resourceReader, new Options(compress: true), 'a.less')
+        compiler.compile('a {}', resourceReader, new Options(globalVars: [x: '1']), 'a.less')
+        compiler.compile('a {}', resourceReader, new Options(), 'b.less')
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less', 'b.css', 'a.css.map')
+        compiler.compile('a {}', new FileSystemResourceReader(), new Options(), 'a.less')
+
+        then:
+        7 * engine.compile(*_) >> new CompilationDetails('css', null)
+    }
+
+    def "variables are compared regardless of their order"() {
+        when:
+        compiler.compile('a {}', resourceReader, new Options(modifyVars: [x: '1', y: '2']), 'a.less')
+        compiler.compile('a {}', resourceReader, new Options(modifyVars: new TreeMap([y: '2', x: '1'])), 'a.less')
+
+        then:
+        1 * engine.compile(*_) >> new CompilationDetails('css', null)
+    }
+
+    def "compile again when an import was modified"() {
+        when:
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+        imported.text = '@color: #0000ff;'
+        imported.lastModified = 2000
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+
+        then:
+        2 * engine.compile(*_) >> { less, options, reader -> reader.read('imported.less'); new CompilationDetails('css', null) }
+    }
+
+    def "return cached results when the content of an import did not change"() {
+        when:
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+        imported.lastModified = 2000
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+        compiler.compile('a {}', resourceReader, new Options(), 'a.less')
+
+        then:
+        1 * engine.compile(*_) >> { less, options, reader -> reader.read('imported.less'); new CompilationDetails('css', null) }
+        compiler.resultCache.hits == 2
+    }
+
+    def "evict the least recently used results"() {
+        compiler.resultCacheSize = 1000
+
+        when:
+        compiler.compile('a {}', null, new Options(), 'a.less')
+        compiler.compile('b {}', null, new Options(), 'b.less')
+        compiler.compile('a {}', null, new Options(), 'a.less')
+        compiler.compile('c {}', null, new Options(), 'c.less')
+        compiler.compile('a {}', null, new Options(), 'a.less')
+        compiler.compile('b {}', null, new Options(), 'b.less')
+
+        then:
+        4 * engine.compile(*_) >> new CompilationDetails('x' * 100, null)
+        compiler.resultCache.entryCount == 2
+        compiler.resultCache.size <= 1000
+    }
+
+    def "do not cache parse errors"() {
+        when:
+        compiler.compile('a {', null, new Options(), 'a.less')
+
+        then:
+        1 * engine.compile(*_) >> { throw new LessParseException('error') }
+        thrown(LessParseException)
+        compiler.resultCache.entryCount == 0
+    }
+
+    def "cache the results of a real engine"() {
+        def compiler = new LessCompilerImpl(new RhinoLessCompilationEngine())
+        compiler.resultCacheSize = 1000000
+        def file = new File('src/test/resources/less/import.less')
+
+        when:
+        def first = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+        def second = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+
+        then:
+        second.result == first.result
+        second.imports == first.imports
+        compiler.resultCache.hits == 1
+    }
+}
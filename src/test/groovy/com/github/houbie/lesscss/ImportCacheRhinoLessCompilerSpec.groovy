@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss
+
+import com.github.houbie.lesscss.engine.SharedScopeRhinoLessCompilationEngine
+import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+
+/**
+ * Runs all the Rhino compiler tests with an engine that caches the parse trees of imported files.
+ */
+class ImportCacheRhinoLessCompilerSpec extends RhinoLessCompilerSpec {
+
+    def setupSpec() {
+        Reader reader = new File('src/test/resources/less.js-tests/functions.js').newReader()
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.importCacheSize = 10000000
+        compiler = new LessCompilerImpl(engine, reader)
+    }
+
+    def "reuse the parse trees of imported files"() {
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.importCacheSize = 10000000
+        def compiler = new LessCompilerImpl(engine)
+        def file = new File('src/test/resources/less/bootstrap/bootstrap.less')
+        def expected = new File('src/test/resources/less/bootstrap/bootstrap.css').text
+
+        when:
+        def first = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+        def second = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+
+        then:
+        first.result == expected
+        second.result == expected
+        second.imports == first.imports
+        engine.importCache.hits == first.imports.size()
+        engine.importCache.misses == first.imports.size()
+    }
+
+    def "parse imported files again when they changed"() {
+        def dir = new File('build/tmp/import-cache')
+        dir.mkdirs()
+        def imported = new File(dir, 'imported.less')
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.importCacheSize = 10000000
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        imported.text = '@color: #ff0000;'
+
+        then:
+        compiler.compile('@import "imported.less"; a {color: @color;}', new FileSystemResourceReader(dir), new Options(), 'a.less') == 'a {\n  color: #ff0000;\n}\n'
+        compiler.compile('@import "imported.less"; b {color: @color;}', new FileSystemResourceReader(dir), new Options(), 'b.less') == 'b {\n  color: #ff0000;\n}\n'
+
+        when:
+        imported.text = '@color: #0000ff;'
+
+        then:
+        compiler.compile('@import "imported.less"; a {color: @color;}', new FileSystemResourceReader(dir), new Options(), 'a.less') == 'a {\n  color: #0000ff;\n}\n'
+        engine.importCache.hits == 1
+        engine.importCache.misses == 2
+    }
+
+    def "compilations do not modify the cached parse trees"() {
+        def dir = new File('build/tmp/import-cache')
+        dir.mkdirs()
+        new File(dir, 'shared.less').text = '@import "nested.less";'
+        new File(dir, 'nested.less').text = '.mixin() {color: red;}'
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.importCacheSize = 10000000
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        compiler.compile('@import "shared.less"; a {.mixin();}', new FileSystemResourceReader(dir), new Options(), 'a.less')
+        def sharedEntry = engine.importCache.entries.values().find { it.key.contains('shared.less|') }
+        def importNode = sharedEntry.parsed.root.rules[0]
+
+        then:
+        importNode.path.value == 'nested.less'
+        !importNode.root
+        importNode.currentFileInfo.is(sharedEntry.parsed.fileInfo)
+        compiler.compile('@import "shared.less"; b {.mixin();}', new FileSystemResourceReader(dir), new Options(), 'b.less') == 'b {\n  color: red;\n}\n'
+        !importNode.root
+        sharedEntry.parsed.fileInfo.rootFilename == 'a.less'
+    }
+
+    def "evict the least recently used parse trees"() {
+        def dir = new File('build/tmp/import-cache')
+        dir.mkdirs()
+        new File(dir, 'a.less').text = '@a: 1;'
+        new File(dir, 'b.less').text = '@b: 2;'
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.importCacheSize = 10
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        compiler.compile('@import "a.less"; @import "b.less"; c {d: @a + @b;}', new FileSystemResourceReader(dir), new Options(), 'c.less')
+
+        then:
+        engine.importCache.entryCount == 1
+        engine.importCache.size == 6
+    }
+}
@@ -169,6 +169,14 @@ class LesscCommandLineParserSpec extends OutputCapturingSpec {
         commandLineParser.encoding == 'utf16'
     }
 
+    def 'check cache max age'() {
+        when:
+        commandLineParser.parse('--cache-max-age 2 src/test/resources/less/basic.less'.split(' '))
+
+        then:
+        commandLineParser.cacheMaxAge == 2 * 24 * 60 * 60 * 1000
+    }
+
     def 'test custom-js'() {
         when:
         commandLineParser.parse('-js src/test/resources/less.js-tests/functions.js src/test/resources/less/basic.less'.split(' '))
@@ -190,11 +198,17 @@ class LesscCommandLineParserSpec extends OutputCapturingSpec {
         sysOutCapture.toString() == 'usage: lessc\n' +
                 '[option option=parameter ...] <source> [destination]\n' +
                 '    --cache-dir <arg>             Cache directory.\n' +
+                '    --cache-max-age <arg>         Remove cached information that was not\n' +
+                '                                  used for the given number of days\n' +
+                '                                  (default: 30, 0: never).\n' +
+                '    --cache-stats                 Print the size of the cache directory\n' +
+                '                                  and exit. Unused information is removed\n' +
+                '                                  first when --cache-max-age is given.\n' +
                 '    --daemon                      Start compiler daemon.\n' +
                 ' -e,--encoding <arg>              Character encoding.\n' +
                 '    --engine <arg>                JavaScript engine, either \'rhino\'\n' +
-                '                                  (default), \'nashorn\' (requires JDK8) or\n' +
-                '                                  \'commandline\'.\n' +
+                '                                  (default), \'rhino-shared\', \'nashorn\'\n' +
+                '                                  (requires JDK8) or \'commandline\'.\n' +
                 '    --global-var <arg>            --global-var=\'VAR=VALUE\' Defines a\n' +
                 '                                  variable that can be referenced by the\n' +
                 '                                  file.\n' +
@@ -37,6 +37,33 @@ class LesscSpec extends OutputCapturingSpec {
         sysOutCapture.toString() == ''
     }
 
+    def 'print cache statistics'() {
+        setup:
+        Lessc.main("--cache-dir $cacheDir src/test/resources/less/basic.less build/tmp/lessc.css".split(' '))
+
+        when:
+        Lessc.main("--cache-dir $cacheDir --cache-stats".split(' '))
+
+        then:
+        sysOutCapture.toString() == "Cache directory $cacheDir:\n0.cache: 1 entries, ${new File(cacheDir, '0.cache').length()} bytes\n"
+    }
+
+    def 'print cache statistics of the legacy cache layout'() {
+        setup:
+        def legacyFile = new File(cacheDir, '0/1f')
+        legacyFile.parentFile.mkdirs()
+        legacyFile.text = 'unit'
+
+        when:
+        Lessc.main("--cache-dir $cacheDir --cache-stats".split(' '))
+
+        then:
+        sysOutCapture.toString().endsWith("0/ (legacy): 1 entries, 4 bytes\n")
+
+        cleanup:
+        legacyFile.parentFile.deleteDir()
+    }
+
     def 'compile file in subdirectory with --include'() {
         setup:
         Lessc.main("--cache-dir $cacheDir --include-path src/test/resources less/import.less build/tmp/lessc.css".split(' '))
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss
+
+import com.github.houbie.lesscss.engine.ScriptEngineLessCompilationEngine
+import spock.lang.IgnoreIf
+
+import javax.script.ScriptEngine
+import javax.script.ScriptEngineFactory
+import javax.script.ScriptEngineManager
+
+/**
+ * Runs all the Rhino compiler tests (including multi-threading) with a ScriptEngine engine that compiles the LESS script
+ * once and runs concurrent compilations in separate bindings.
+ */
+@IgnoreIf({ !new ScriptEngineManager().getEngineByName('nashorn') })
+class NashornLessCompilerSpec extends RhinoLessCompilerSpec {
+
+    def setupSpec() {
+        Reader reader = new File('src/test/resources/less.js-tests/functions.js').newReader()
+        compiler = new LessCompilerImpl(new ScriptEngineLessCompilationEngine('nashorn'), reader)
+    }
+
+    def "engines with the same ScriptEngine name share the compiled script"() {
+        def engine = new ScriptEngineLessCompilationEngine('nashorn')
+        engine.initialize(null)
+
+        expect:
+        engine.scriptEngine.is(compiler.engine.scriptEngine)
+        engine.lessScript.is(compiler.engine.lessScript)
+    }
+
+    def "global variables of a compilation do not leak into other engines"() {
+        def script = 'var counter = 0; less.tree.functions.count = function () { counter++; return new (less.tree.Dimension)(counter); };'
+        def compiler1 = new LessCompilerImpl(new ScriptEngineLessCompilationEngine('nashorn'), script)
+        def compiler2 = new LessCompilerImpl(new ScriptEngineLessCompilationEngine('nashorn'), script)
+
+        expect:
+        compiler1.compile('a {width: count();}') == 'a {\n  width: 1;\n}\n'
+        compiler1.compile('a {width: count();}') == 'a {\n  width: 2;\n}\n'
+        compiler2.compile('a {width: count();}') == 'a {\n  width: 1;\n}\n'
+    }
+
+    def "only compile concurrently when the ScriptEngine is thread safe"() {
+        def factory = Mock(ScriptEngineFactory)
+        factory.getParameter('THREADING') >> threading
+        def scriptEngine = Mock(ScriptEngine)
+        scriptEngine.getFactory() >> factory
+
+        expect:
+        new ScriptEngineLessCompilationEngine(scriptEngine).concurrent == concurrent
+
+        where:
+        threading         | concurrent
+        null              | false
+        'MULTITHREADED'   | true
+        'THREAD-ISOLATED' | true
+        'STATELESS'       | true
+    }
+
+    def "nashorn compilations are serialized"() {
+        expect:
+        !compiler.engine.concurrent
+    }
+}
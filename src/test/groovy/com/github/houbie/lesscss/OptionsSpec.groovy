@@ -63,4 +63,22 @@ class OptionsSpec extends Specification {
         prop << nonDefaultPropertyValues.keySet()
     }
 
+    def "separators in strings do not make canonical strings ambiguous"() {
+        expect:
+        new Options(options1).toCanonicalString() != new Options(options2).toCanonicalString()
+
+        where:
+        options1                                             | options2
+        [rootpath: 'a;relativeUrls=true']                    | [rootpath: 'a', relativeUrls: true]
+        [sourceMapRootpath: 'a;sourceMapBasepath=b']         | [sourceMapRootpath: 'a', sourceMapBasepath: 'b']
+        [sourceMapURL: null]                                 | [sourceMapURL: 'null']
+        [globalVars: [a: 'b;c=d']]                           | [globalVars: [a: 'b', c: 'd']]
+        [modifyVars: [a: '1;}', b: '2']]                     | [modifyVars: [a: '1'], globalVars: [b: '2']]
+    }
+
+    def "equal options have the same canonical string"() {
+        expect:
+        new Options(globalVars: [a: '1', b: '2']).toCanonicalString() == new Options(globalVars: [b: '2', a: '1']).toCanonicalString()
+        new Options(rootpath: 'a').toCanonicalString() == new Options(rootpath: 'a').toCanonicalString()
+    }
 }
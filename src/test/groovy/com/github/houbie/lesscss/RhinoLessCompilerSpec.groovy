@@ -16,12 +16,13 @@
 
 package com.github.houbie.lesscss
 
+import com.github.houbie.lesscss.engine.CompilationOptions
+import com.github.houbie.lesscss.engine.LessCompilationEngine
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+import com.github.houbie.lesscss.resourcereader.ResourceReader
 import spock.lang.Unroll
 
-import java.util.concurrent.Callable
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import java.util.concurrent.*
 
 import static com.github.houbie.lesscss.Options.LineNumbersOutput.*
 
@@ -167,4 +168,75 @@ class RhinoLessCompilerSpec extends AbstractLessCompilerSpec {
                 '#broken less {'
     }
 
+    def "compile asynchronously"() {
+        def file = new File('src/test/resources/less/import.less')
+
+        when:
+        def result = compiler.compileAsync(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name).get()
+
+        then:
+        result.result == new File('src/test/resources/less/import.css').text
+        result.imports == ['import1/imported1.less', 'import1/import2/imported2.less', 'import1/commonImported.less', 'import1/import2/commonImported.less', 'imported0.less']
+    }
+
+    def "asynchronous compilation with errors"() {
+        def file = new File('src/test/resources/less/broken.less')
+
+        when:
+        compiler.compileAsync(file.text, null, new Options(), file.name).get()
+
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof LessParseException
+    }
+
+    def "reject and cancel asynchronous compilations"() {
+        def started = new CountDownLatch(1)
+        def finish = new CountDownLatch(1)
+        def compiler = new LessCompilerImpl(new BlockingEngine(started, finish))
+        def executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1))
+        compiler.executorService = executor
+
+        when:
+        def running = compiler.compileAsync('running', null, new Options(), 'running.less')
+        started.await()
+        def queued = compiler.compileAsync('queued', null, new Options(), 'queued.less')
+        compiler.compileAsync('rejected', null, new Options(), 'rejected.less')
+
+        then:
+        thrown(RejectedExecutionException)
+
+        when:
+        queued.cancel(false)
+        finish.countDown()
+
+        then:
+        running.get().result == 'running'
+        queued.cancelled
+
+        cleanup:
+        finish.countDown()
+        executor.shutdown()
+    }
+
+    static class BlockingEngine implements LessCompilationEngine {
+        CountDownLatch started
+        CountDownLatch finish
+
+        BlockingEngine(CountDownLatch started, CountDownLatch finish) {
+            this.started = started
+            this.finish = finish
+        }
+
+        @Override
+        void initialize(Reader customJavaScriptReader) {
+        }
+
+        @Override
+        LessCompiler.CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+            started.countDown()
+            finish.await()
+            return new LessCompiler.CompilationDetails(less, null)
+        }
+    }
 }
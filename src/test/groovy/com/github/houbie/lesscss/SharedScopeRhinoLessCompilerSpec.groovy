@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss
+
+import com.github.houbie.lesscss.engine.SharedScopeRhinoLessCompilationEngine
+
+/**
+ * Runs all the Rhino compiler tests (including multi-threading) with an engine that compiles in child scopes of a shared scope.
+ */
+class SharedScopeRhinoLessCompilerSpec extends RhinoLessCompilerSpec {
+
+    def setupSpec() {
+        Reader reader = new File('src/test/resources/less.js-tests/functions.js').newReader()
+        compiler = new LessCompilerImpl(new SharedScopeRhinoLessCompilationEngine(), reader)
+    }
+
+    def "engines with the same custom javascript share the scope"() {
+        def engine = new SharedScopeRhinoLessCompilationEngine()
+        engine.initialize(new File('src/test/resources/less.js-tests/functions.js').newReader())
+
+        expect:
+        engine.sharedScope.is(compiler.engine.sharedScope)
+        !engine.sharedScope.is(new LessCompilerImpl(new SharedScopeRhinoLessCompilationEngine()).engine.sharedScope)
+    }
+
+    def "keep a limited number of shared scopes"() {
+        def engines = (0..SharedScopeRhinoLessCompilationEngine.MAX_SHARED_SCOPES).collect {
+            def engine = new SharedScopeRhinoLessCompilationEngine()
+            engine.initialize(new StringReader("var scope$it;"))
+            engine
+        }
+        def first = new SharedScopeRhinoLessCompilationEngine()
+        def last = new SharedScopeRhinoLessCompilationEngine()
+
+        when:
+        first.initialize(new StringReader('var scope0;'))
+        last.initialize(new StringReader("var scope$SharedScopeRhinoLessCompilationEngine.MAX_SHARED_SCOPES;"))
+
+        then:
+        SharedScopeRhinoLessCompilationEngine.sharedScopes.size() == SharedScopeRhinoLessCompilationEngine.MAX_SHARED_SCOPES
+        !first.sharedScope.is(engines.first().sharedScope)
+        last.sharedScope.is(engines.last().sharedScope)
+    }
+
+    def "global variables of a compilation do not leak into the shared scope"() {
+        def compiler = new LessCompilerImpl(new SharedScopeRhinoLessCompilationEngine(), 'var counter = 0; less.tree.functions.count = function () { counter++; return new (less.tree.Dimension)(counter); };')
+
+        expect:
+        compiler.compile('a {width: count();}') == 'a {\n  width: 1;\n}\n'
+        compiler.compile('a {width: count();}') == 'a {\n  width: 1;\n}\n'
+    }
+}
@@ -21,9 +21,12 @@ import com.github.houbie.lesscss.LessCompiler
 import com.github.houbie.lesscss.LessParseException
 import com.github.houbie.lesscss.Options
 import com.github.houbie.lesscss.engine.CommandLineLesscCompilationEngine
+import com.github.houbie.lesscss.engine.PooledLessCompilationEngine
 import com.github.houbie.lesscss.engine.RhinoLessCompilationEngine
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
 
+import java.util.concurrent.Executors
+
 import static com.github.houbie.lesscss.Options.LineNumbersOutput.COMMENTS
 
 class CompilationTaskSpec extends AbstractLineFeedFixingSpecification {
@@ -70,6 +73,7 @@ class CompilationTaskSpec extends AbstractLineFeedFixingSpecification {
         compilationTask.readFromCache(importUnit) == importUnit
 
         compiledLocation.sort() == [importUnit.sourceLocation, basicUnit.sourceLocation].sort()
+        cacheDir.list() as List == ['0.cache']
     }
 
     def 'execute with filled cache and destination'() {
@@ -110,6 +114,31 @@ class CompilationTaskSpec extends AbstractLineFeedFixingSpecification {
         compiledLocations == [basicUnit.sourceLocation]
     }
 
+    def 'keep the timestamp of a destination that did not change'() {
+        setup:
+        compilationTask.execute() //fill cache
+        long now = System.currentTimeMillis()
+        basicDestination.lastModified = now - 60000
+        basicSource.lastModified = now - 30000
+
+        when:
+        def compiledLocations = compilationTask.execute()*.sourceLocation
+
+        then:
+        compiledLocations == [basicUnit.sourceLocation]
+        basicDestination.text == basicResult.text
+        basicDestination.lastModified() == now - 60000
+        workDir.list().findAll { it.endsWith('.tmp') } == []
+
+        when:
+        compilationTask = new CompilationTask(new RhinoLessCompilationEngine())
+        compilationTask.cacheDir = cacheDir
+        compilationTask.compilationUnits = [importUnit, basicUnit]
+
+        then:
+        compilationTask.execute() == []
+    }
+
     def 'recompile when imported source changed'() {
         setup:
         compilationTask.execute() //fill cache
@@ -145,6 +174,177 @@ class CompilationTaskSpec extends AbstractLineFeedFixingSpecification {
         compiledLocations == [importUnit.sourceLocation]
     }
 
+    def 'do not recompile touched sources with content digests'() {
+        setup:
+        compilationTask.contentDigests = true
+        [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() - 10000 }
+        compilationTask.execute() //fill cache
+        def timestamp = importDestination.lastModified()
+
+        when:
+        sleep(1200)
+        [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() }
+        def compiledLocations = compilationTask.execute()
+
+        then:
+        compiledLocations == []
+        importDestination.lastModified() == timestamp
+
+        when:
+        imported0Source << '@import "basic";'
+        imported0Source.lastModified = System.currentTimeMillis() + 1000
+        compiledLocations = compilationTask.execute()*.sourceLocation
+
+        then:
+        importDestination.text == importResult.text + 'p {\n  color: #000000;\n  width: add(1, 1);\n}\n'
+        compiledLocations == [importUnit.sourceLocation]
+    }
+
+    def 'restore results from a shared output cache'() {
+        setup:
+        def outputCache = new DirectoryOutputCache(new File('build/tmp/outputCache'))
+        def otherCacheDir = new File('build/tmp/otherTestCacheDir')
+        cleanDir(outputCache.directory)
+        cleanDir(otherCacheDir)
+        [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() - 10000 }
+        compilationTask.outputCache = outputCache
+        compilationTask.execute() //fill output cache
+        def expectedImportResult = importDestination.text
+        def expectedBasicResult = basicDestination.text
+        [importDestination, basicDestination]*.delete()
+
+        //another build with an empty unit cache
+        compilationTask = new CompilationTask(new RhinoLessCompilationEngine(), otherCacheDir)
+        compilationTask.compilationUnits = [importUnit, basicUnit]
+        compilationTask.outputCache = outputCache
+        compilationTask.lessCompiler = Mock(LessCompiler)
+
+        when:
+        def compiledLocations = compilationTask.execute()*.sourceLocation
+
+        then:
+        0 * compilationTask.lessCompiler._
+        compiledLocations.sort() == [importUnit.sourceLocation, basicUnit.sourceLocation].sort()
+        importDestination.text == expectedImportResult
+        basicDestination.text == expectedBasicResult
+        importUnit.imports == ['import1/imported1.less', 'import1/import2/imported2.less', 'import1/commonImported.less', 'import1/import2/commonImported.less', 'imported0.less']
+
+        when:
+        imported0Source << '@import "basic";'
+        imported0Source.lastModified = System.currentTimeMillis() + 1000
+        compiledLocations = compilationTask.execute()*.sourceLocation
+
+        then:
+        1 * compilationTask.lessCompiler.compileWithDetails(*_) >> {
+            def details = new LessCompiler.CompilationDetails('changed', null)
+            details.imports = []
+            details
+        }
+        compiledLocations == [importUnit.sourceLocation]
+        importDestination.text == 'changed'
+    }
+
+    def 'share results without source map between different destinations'() {
+        setup:
+        def outputCache = new DirectoryOutputCache(new File('build/tmp/outputCache'))
+        def otherDestination = new File('build/tmp/otherDestination/basic.css')
+        cleanDir(outputCache.directory)
+        cleanDir(otherDestination.parentFile)
+        basicSource.lastModified = System.currentTimeMillis() - 10000
+        compilationTask.compilationUnits = [basicUnit]
+        compilationTask.outputCache = outputCache
+        compilationTask.execute() //fill output cache
+
+        compilationTask = new CompilationTask(new RhinoLessCompilationEngine(), new File('build/tmp/otherTestCacheDir'))
+        cleanDir(compilationTask.cacheDir)
+        compilationTask.compilationUnits = [new CompilationUnit(basicUnit.sourceLocation, otherDestination, new Options(), basicUnit.resourceReader)]
+        compilationTask.outputCache = outputCache
+        compilationTask.lessCompiler = Mock(LessCompiler)
+
+        when:
+        compilationTask.execute()
+
+        then:
+        0 * compilationTask.lessCompiler._
+        otherDestination.text == basicDestination.text
+
+        when:
+        otherDestination.delete()
+        compilationTask.compilationUnits = [new CompilationUnit(basicUnit.sourceLocation, otherDestination, new Options(sourceMap: true), basicUnit.resourceReader)]
+        compilationTask.execute()
+
+        then:
+        1 * compilationTask.lessCompiler.compileWithDetails(*_) >> {
+            def details = new LessCompiler.CompilationDetails('with source map', '{}')
+            details.imports = []
+            details
+        }
+        otherDestination.text == 'with source map'
+    }
+
+    def 'restore results from a shared output cache after the imports changed'() {
+        setup:
+        def outputCache = new DirectoryOutputCache(new File('build/tmp/outputCache'))
+        cleanDir(outputCache.directory)
+        def originalImported0 = imported0Source.text
+        def lessCompiler = Mock(LessCompiler)
+        compilationTask.compilationUnits = [importUnit]
+        compilationTask.outputCache = outputCache
+        def build = {
+            [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() - 10000 }
+            cleanDir(new File('build/tmp/otherTestCacheDir'))
+            compilationTask = new CompilationTask(new RhinoLessCompilationEngine(), new File('build/tmp/otherTestCacheDir'))
+            compilationTask.compilationUnits = [importUnit]
+            compilationTask.outputCache = outputCache
+            compilationTask.lessCompiler = lessCompiler
+            compilationTask.execute()
+        }
+        [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() - 10000 }
+        compilationTask.execute() //fill output cache
+        def originalResult = importDestination.text
+
+        when: 'an import imports another file, without changing the source'
+        imported0Source.text = originalImported0 + '@import "basic";'
+        [importSource, imported0Source, basicSource].each { it.lastModified = System.currentTimeMillis() - 10000 }
+        compilationTask = new CompilationTask(new RhinoLessCompilationEngine(), new File('build/tmp/otherTestCacheDir'))
+        cleanDir(compilationTask.cacheDir)
+        compilationTask.compilationUnits = [importUnit]
+        compilationTask.outputCache = outputCache
+        compilationTask.execute()
+        def changedResult = importDestination.text
+        importDestination.delete()
+        build()
+
+        then:
+        0 * lessCompiler._
+        changedResult != originalResult
+        importDestination.text == changedResult
+        importUnit.imports.contains('basic.less')
+
+        when: 'the import graph changes back'
+        imported0Source.text = originalImported0
+        build()
+
+        then:
+        0 * lessCompiler._
+        importDestination.text == originalResult
+        !importUnit.imports.contains('basic.less')
+    }
+
+    def 'delete unused cache files'() {
+        setup:
+        def unused = new File(cacheDir, '1f.cache')
+        unused.text = ''
+        unused.lastModified = System.currentTimeMillis() - CompilationTask.DEFAULT_CACHE_MAX_AGE - 1000
+
+        when:
+        compilationTask.execute()
+
+        then:
+        cacheDir.list() as List == ['0.cache']
+        compilationTask.unitCache.statistics.misses == 2
+    }
+
     def 'recompile when options changed'() {
         setup:
         compilationTask.execute() //fill cache
@@ -172,6 +372,58 @@ class CompilationTaskSpec extends AbstractLineFeedFixingSpecification {
         !basicUnit.isDirty()
     }
 
+    def 'execute in parallel'() {
+        setup:
+        def executorService = Executors.newFixedThreadPool(2)
+        compilationTask = new CompilationTask(new PooledLessCompilationEngine(2), cacheDir)
+        compilationTask.compilationUnits = [importUnit, basicUnit]
+        compilationTask.executorService = executorService
+
+        when:
+        def compiledLocations = compilationTask.execute()*.sourceLocation
+
+        then:
+        basicDestination.text == basicResult.text
+        importDestination.text == importResult.text
+        !importUnit.isDirty()
+        compilationTask.readFromCache(importUnit) == importUnit
+        compiledLocations.sort() == [importUnit.sourceLocation, basicUnit.sourceLocation].sort()
+
+        when:
+        compiledLocations = compilationTask.execute()
+
+        then:
+        compiledLocations == []
+
+        cleanup:
+        executorService.shutdown()
+    }
+
+    def 'report all parse exceptions when executing in parallel'() {
+        setup:
+        def executorService = Executors.newFixedThreadPool(3)
+        def broken1 = new File(workDir, 'broken1.less')
+        def broken2 = new File(workDir, 'broken2.less')
+        broken1.text = '#broken1 {'
+        broken2.text = '#broken2 {'
+        compilationTask.compilationUnits = [basicUnit, new CompilationUnit(broken1, new File(workDir, 'broken1.css')), new CompilationUnit(broken2, new File(workDir, 'broken2.css'))]
+        compilationTask.executorService = executorService
+
+        when:
+        compilationTask.execute()
+
+        then:
+        def e = thrown(MultipleLessParseException)
+        e.parseExceptions.size() == 2
+        e.message.contains('#broken1 {')
+        e.message.contains('#broken2 {')
+        e.compiledUnits*.sourceLocation == [basicUnit.sourceLocation]
+        basicDestination.text == basicResult.text
+
+        cleanup:
+        executorService.shutdown()
+    }
+
     def 'start daemon'() {
         setup:
         def compiledLocations = []
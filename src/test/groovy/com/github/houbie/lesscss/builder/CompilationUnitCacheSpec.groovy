@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder
+
+import com.github.houbie.lesscss.Options
+import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CompilationUnitCacheSpec extends Specification {
+    File cacheFile = new File('build/tmp/unitCache/units.cache')
+
+    def setup() {
+        cacheFile.parentFile.deleteDir()
+    }
+
+    CompilationUnit newUnit(String name, Options options = new Options()) {
+        new CompilationUnit("src/${name}.less", new File("build/${name}.css"), options, new FileSystemResourceReader(new File('src')))
+    }
+
+    @Unroll
+    def "read cached units from file (memory mapped: #memoryMapped)"() {
+        def unit = newUnit('a')
+        unit.imports = ['b.less', 'c/d.less']
+        unit.exceptionTimestamp = 123
+        new CompilationUnitCache(cacheFile, false).put(unit)
+        new CompilationUnitCache(cacheFile, false).put(newUnit('e'))
+
+        when:
+        def cache = new CompilationUnitCache(cacheFile, memoryMapped)
+        def cached = cache.get(newUnit('a'))
+
+        then:
+        cache.entryCount == 2
+        cached == unit
+        cached.exceptionTimestamp == 123
+        cache.get(newUnit('e')).imports == []
+        cache.get(newUnit('f')) == null
+
+        where:
+        memoryMapped << [false, true]
+    }
+
+    def "units with different options are different entries"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.put(newUnit('a', new Options(globalVars: [x: '1', y: '2'])))
+
+        expect:
+        cache.get(newUnit('a', new Options(globalVars: new TreeMap([y: '2', x: '1'])))) != null
+        cache.get(newUnit('a', new Options(globalVars: [x: '1']))) == null
+        cache.get(newUnit('a', new Options(compress: true))) == null
+        cache.get(newUnit('a')) == null
+    }
+
+    def "compact superseded records"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        def unit = newUnit('a')
+
+        when:
+        cache.put(unit)
+        def length = cacheFile.length()
+        (1..250).each {
+            unit.imports = ["import${it}.less".toString()]
+            cache.put(unit)
+        }
+
+        then:
+        cacheFile.length() < 100 * length //compacted at least once
+        new CompilationUnitCache(cacheFile, false).get(newUnit('a')).imports == ['import250.less']
+    }
+
+    def "discard corrupt records"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.put(newUnit('a'))
+        cache.put(newUnit('b'))
+        def length = cacheFile.length()
+        def raf = new RandomAccessFile(cacheFile, 'rw')
+        raf.setLength(length - 3)
+        raf.close()
+
+        when:
+        cache = new CompilationUnitCache(cacheFile, false)
+
+        then:
+        cache.get(newUnit('a')) != null
+        cache.get(newUnit('b')) == null
+
+        when:
+        cache.put(newUnit('c'))
+
+        then:
+        new CompilationUnitCache(cacheFile, false).entryCount == 2
+    }
+
+    def "ignore files with another format"() {
+        cacheFile.parentFile.mkdirs()
+        cacheFile.text = 'not a cache file'
+
+        when:
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.put(newUnit('a'))
+
+        then:
+        new CompilationUnitCache(cacheFile, false).get(newUnit('a')) != null
+    }
+
+    def "keep cached units in memory and write only changes"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        def unit = newUnit('a')
+        unit.imports = ['b.less']
+        cache.put(unit)
+        def length = cacheFile.length()
+
+        when:
+        def cached = cache.get(unit)
+        cache.put(unit)
+
+        then:
+        cache.get(unit).is(cached)
+        cacheFile.length() == length
+
+        when:
+        unit.imports = ['c.less']
+        cache.put(unit)
+
+        then:
+        cacheFile.length() > length
+        cache.get(unit).imports == ['c.less']
+    }
+
+    def "look up modified units again"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        def unit = newUnit('a')
+        cache.put(unit)
+
+        expect:
+        cache.get(unit) != null
+
+        when:
+        unit.options.compress = true
+
+        then:
+        cache.get(unit) == null
+
+        when:
+        unit.options.compress = false
+        unit.resourceReader = new FileSystemResourceReader(new File('build'))
+
+        then:
+        cache.get(unit) == null
+    }
+
+    def "check the content digests of the source and the imports"() {
+        def dir = new File(cacheFile.parentFile, 'src')
+        dir.mkdirs()
+        def source = new File(dir, 'a.less')
+        def imported = new File(dir, 'b.less')
+        source.text = '@import "b.less";'
+        imported.text = '@b: 1;'
+        [source, imported].each { it.lastModified = 1000 }
+        def destination = new File(dir, 'a.css')
+        destination.text = ''
+        def unit = new CompilationUnit('a.less', destination, new Options(), new FileSystemResourceReader(dir))
+        unit.imports = ['b.less', 'c.less']
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.putWithContentDigests(unit, System.currentTimeMillis())
+
+        expect:
+        cache.isUnchanged(unit)
+
+        when: 'touched'
+        imported.lastModified = 2000
+
+        then:
+        cache.isUnchanged(unit)
+        new CompilationUnitCache(cacheFile, false).isUnchanged(unit)
+
+        when: 'modified'
+        imported.text = '@b: 2;'
+
+        then:
+        !cache.isUnchanged(unit)
+
+        when: 'an unresolved import appears'
+        imported.text = '@b: 1;'
+        new File(dir, 'c.less').text = ''
+
+        then:
+        !cache.isUnchanged(unit)
+    }
+
+    def "do not store content digests of files that were modified during the compilation"() {
+        def dir = new File(cacheFile.parentFile, 'src')
+        dir.mkdirs()
+        def source = new File(dir, 'a.less')
+        source.text = 'a {}'
+        def destination = new File(dir, 'a.css')
+        destination.text = ''
+        def unit = new CompilationUnit('a.less', destination, new Options(), new FileSystemResourceReader(dir))
+        def cache = new CompilationUnitCache(cacheFile, false)
+
+        when:
+        cache.putWithContentDigests(unit, source.lastModified() - 100)
+
+        then:
+        cache.get(unit) != null
+        !cache.isUnchanged(unit)
+    }
+
+    def "do not store content digests of files that were modified while they were read"() {
+        def dir = new File(cacheFile.parentFile, 'src')
+        dir.mkdirs()
+        def source = new File(dir, 'a.less')
+        source.text = 'a {}'
+        source.lastModified = 1000
+        def destination = new File(dir, 'a.css')
+        destination.text = ''
+        def unit = new CompilationUnit('a.less', destination, new Options(), new TouchingResourceReader(dir))
+        def cache = new CompilationUnitCache(cacheFile, false)
+
+        when:
+        cache.putWithContentDigests(unit, System.currentTimeMillis())
+
+        then:
+        source.lastModified() == 2000
+        cache.get(unit) != null
+        !cache.isUnchanged(unit)
+    }
+
+    def "evict units that were not used"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.put(newUnit('a'))
+        cache.put(newUnit('b'))
+        sleep(300)
+        cache.put(newUnit('c'))
+
+        when:
+        cache.get(newUnit('b'))
+        def removed = cache.evict(200)
+
+        then:
+        removed == 1
+        cache.get(newUnit('a')) == null
+        def reloaded = new CompilationUnitCache(cacheFile, false)
+        reloaded.entryCount == 2
+        reloaded.get(newUnit('b')) != null
+        reloaded.get(newUnit('c')) != null
+    }
+
+    def "report statistics"() {
+        def cache = new CompilationUnitCache(cacheFile, false)
+        cache.put(newUnit('a'))
+
+        when:
+        cache.get(newUnit('a'))
+        cache.get(newUnit('b'))
+        def statistics = cache.statistics
+
+        then:
+        statistics.entryCount == 1
+        statistics.size == cacheFile.length()
+        statistics.hits == 1
+        statistics.misses == 1
+        statistics.hitRate == 0.5d
+    }
+
+    def "delete unused cache files"() {
+        def dir = cacheFile.parentFile
+        dir.mkdirs()
+        def used = new File(dir, '0.cache')
+        def unused = new File(dir, '1f.cache')
+        def other = new File(dir, 'other.cache')
+        [used, unused, other].each { it.text = '' }
+        [unused, other].each { it.lastModified = System.currentTimeMillis() - 10000 }
+
+        expect:
+        CompilationUnitCache.listCacheFiles(dir).collect { it.name }.sort() == ['0.cache', '1f.cache']
+        CompilationUnitCache.evictCacheFiles(dir, 5000) == 1
+        dir.list().sort() == ['0.cache', 'other.cache']
+    }
+
+    def "evict and count the cache files of the legacy layout"() {
+        def dir = cacheFile.parentFile
+        def used = new File(dir, '1f/2a')
+        def unused = new File(dir, '1f/3b')
+        def unusedDir = new File(dir, 'c4/5d')
+        [used, unused, unusedDir].each {
+            it.parentFile.mkdirs()
+            it.text = 'unit'
+        }
+        [unused, unusedDir].each { it.lastModified = System.currentTimeMillis() - 10000 }
+
+        expect:
+        CompilationUnitCache.listLegacyCacheDirectories(dir).collect { it.name }.sort() == ['1f', 'c4']
+        CompilationUnitCache.getLegacyStatistics(new File(dir, '1f')).entryCount == 2
+        CompilationUnitCache.getLegacyStatistics(new File(dir, '1f')).size == 8
+        CompilationUnitCache.evictCacheFiles(dir, 5000) == 2
+        used.exists()
+        !unused.exists()
+        !unusedDir.parentFile.exists()
+
+        cleanup:
+        used.parentFile.deleteDir()
+    }
+
+    /**
+     * Modifies a file while it is read.
+     */
+    static class TouchingResourceReader extends FileSystemResourceReader {
+        TouchingResourceReader(File dir) {
+            super([dir] as File[])
+        }
+
+        @Override
+        String read(String location) throws IOException {
+            def result = super.read(location)
+            def file = new File(baseDirs[0], location)
+            file.lastModified = file.lastModified() + 1000
+            return result
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.builder
+
+import spock.lang.Specification
+
+class DirectoryOutputCacheSpec extends Specification {
+    File directory = new File('build/tmp/directoryOutputCache')
+    DirectoryOutputCache cache = new DirectoryOutputCache(directory)
+
+    def setup() {
+        directory.deleteDir()
+    }
+
+    def "store and read entries"() {
+        when:
+        cache.put('o-0123ab', [1, 2, 3] as byte[])
+
+        then:
+        cache.get('o-0123ab') == [1, 2, 3] as byte[]
+        cache.get('o-0123ac') == null
+        cache.getFile('o-0123ab') == new File(directory, 'ab/o-0123ab')
+    }
+
+    def "existing entries are replaced and no temporary files are left behind"() {
+        when:
+        cache.put('m-abcdef', [1] as byte[])
+        cache.put('m-abcdef', [2] as byte[])
+
+        then:
+        cache.get('m-abcdef') == [2] as byte[]
+        new File(directory, 'ef').list() as List == ['m-abcdef']
+    }
+
+    def "evict old and least recently used entries"() {
+        def now = System.currentTimeMillis()
+        ['o-000001': now - 10000, 'o-000002': now - 3000, 'o-000003': now - 2000, 'o-000004': now - 1000].each { key, lastModified ->
+            cache.put(key, new byte[100])
+            cache.getFile(key).lastModified = lastModified
+        }
+
+        when:
+        def removed = cache.evict(250, 5000)
+
+        then:
+        removed == 2
+        cache.get('o-000001') == null
+        cache.get('o-000002') == null
+        cache.get('o-000003') != null
+        cache.get('o-000004') != null
+    }
+
+    def "report statistics"() {
+        cache.put('o-000001', new byte[100])
+        cache.put('o-000002', new byte[50])
+
+        when:
+        cache.get('o-000001')
+        cache.get('o-000003')
+        def statistics = cache.statistics
+
+        then:
+        statistics.entryCount == 2
+        statistics.size == 150
+        statistics.hits == 1
+        statistics.misses == 1
+    }
+}
@@ -17,7 +17,9 @@
 package com.github.houbie.lesscss.engine
 
 import com.github.houbie.lesscss.AbstractLineFeedFixingSpecification
+import com.github.houbie.lesscss.CompilationTimeoutException
 import com.github.houbie.lesscss.LessCompilerImpl
+import com.github.houbie.lesscss.LessParseException
 import com.github.houbie.lesscss.Options
 import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
 
@@ -71,4 +73,208 @@ class CommandLineLesscCompilationEngineSpec extends AbstractLineFeedFixingSpecif
         compilationDetails.result == new File('src/test/resources/less/import.css').text
         compilationDetails.imports*.replace('\\', '/').sort() == ['import1/commonImported.less', 'import1/import2/commonImported.less', 'import1/import2/imported2.less', 'import1/imported1.less', 'imported0.less']
     }
+
+    def 'read imports with a one-shot worker'() {
+        def lessDir = new File('src/test/resources/less').absoluteFile
+        def log = new File('build/tmp/fake-lessc.log')
+        log.delete()
+        def engine = new CommandLineLesscCompilationEngine(createFakeLessc(log).path) {
+            @Override
+            protected String[] buildOneShotWorkerCommand() {
+                return StubLesscWorker.command() as String[]
+            }
+        }
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        def compilationDetails = compiler.compileWithDetails('a {color: red;}', new FileSystemResourceReader(lessDir), new Options(), 'a.less')
+
+        then:
+        compilationDetails.result == 'a {color: red;}'
+        compilationDetails.imports == ['basic.less']
+        engine.metrics.spawnCount == 1
+        engine.metrics.runCount == 1
+        !log.exists()
+    }
+
+    def 'find the less module of the lessc executable'() {
+        def module = new File('build/tmp/node_modules/less')
+        def lessc = new File(module, 'bin/lessc')
+        lessc.parentFile.mkdirs()
+        lessc.text = ''
+        new File(module, 'package.json').text = '{}'
+
+        expect:
+        CommandLineLesscCompilationEngine.findLessModule(lessc.path) == module.canonicalFile
+        CommandLineLesscCompilationEngine.findLessModule(createFakeLessc(new File('build/tmp/fake-lessc.log')).path) == null
+        CommandLineLesscCompilationEngine.findLessModule('no-such-lessc') == null
+    }
+
+    def 'collect process metrics'() {
+        def engine = new CommandLineLesscCompilationEngine(createFakeLessc(new File('build/tmp/fake-lessc.log')).path)
+
+        when:
+        new LessCompilerImpl(engine).compile('a {color: red;}')
+
+        then:
+        engine.metrics.spawnCount == 1
+        engine.metrics.runCount == 1
+        engine.metrics.outputBytes == 'a {\n  color: red;\n}\n'.length()
+        engine.metrics.timeoutCount == 0
+    }
+
+    def 'drain large error output without blocking'() {
+        def engine = new CommandLineLesscCompilationEngine(createScript('verbose-lessc', '''head -c 500000 /dev/zero | tr '\\0' e >&2
+echo css
+exit 1''').path)
+
+        when:
+        new LessCompilerImpl(engine).compile('a {}')
+
+        then:
+        def e = thrown(LessParseException)
+        e.message.length() == 500000
+    }
+
+    def 'kill lessc when it does not finish in time'() {
+        def engine = new CommandLineLesscCompilationEngine(createScript('slow-lessc', 'exec sleep 30').path)
+        engine.timeout = 200
+        def start = System.currentTimeMillis()
+
+        when:
+        new LessCompilerImpl(engine).compile('a {}')
+
+        then:
+        thrown(CompilationTimeoutException)
+        System.currentTimeMillis() - start < 10000
+        engine.metrics.timeoutCount == 1
+    }
+
+    def 'capture imports that produce no css'() {
+        def engine = new CommandLineLesscCompilationEngine(executable)
+        def compiler = new LessCompilerImpl(engine)
+        def lessFile = new File('src/test/resources/less/mixinsImport.less')
+        def compilationDetails = compiler.compileWithDetails(lessFile.text, new FileSystemResourceReader(lessFile.parentFile), new Options(), lessFile.name)
+
+        expect:
+        compilationDetails.result == new File('src/test/resources/less/mixinsImport.css').text
+        compilationDetails.imports*.replace('\\', '/').sort() == ['mixins/mixins.less', 'mixins/reference.less']
+    }
+
+    def 'compile with worker'() {
+        def engine = new CommandLineLesscCompilationEngine()
+        engine.workerCommand = StubLesscWorker.command() as String[]
+        def compiler = new LessCompilerImpl(engine)
+        def lessDir = new File('src/test/resources/less')
+
+        when:
+        def compilationDetails = compiler.compileWithDetails('a {}', new FileSystemResourceReader(lessDir), new Options(sourceMap: true), 'a.less')
+
+        then:
+        compilationDetails.result == 'a {}'
+        compilationDetails.sourceMap == 'stub source map'
+        compilationDetails.imports == ['basic.less']
+
+        when:
+        def options = compiler.compile('options', null, new Options(strictMath: true, optimizationLevel: 2, globalVars: [color: 'red']), 'a.less').readLines()
+
+        then:
+        options.containsAll(['filename=a.less', 'strictMath=true', 'strictUnits=false', 'optimization=2', 'globalVars.color=red'])
+        !options.any { it.startsWith('sourceMap') }
+
+        cleanup:
+        engine.stopWorker()
+    }
+
+    def 'worker reports parse errors'() {
+        def engine = new CommandLineLesscCompilationEngine()
+        engine.workerCommand = StubLesscWorker.command() as String[]
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        compiler.compile('error in less')
+
+        then:
+        def e = thrown(LessParseException)
+        e.message == 'stub error in less'
+
+        cleanup:
+        engine.stopWorker()
+    }
+
+    def 'restart worker when it died'() {
+        def engine = new CommandLineLesscCompilationEngine()
+        engine.workerCommand = StubLesscWorker.command() as String[]
+        def compiler = new LessCompilerImpl(engine)
+
+        expect:
+        compiler.compile('a') == 'a'
+
+        when:
+        engine.worker.process.destroy()
+
+        then:
+        compiler.compile('b') == 'b'
+
+        when:
+        compiler.compile('exit')
+
+        then:
+        thrown(RuntimeException)
+        compiler.compile('c') == 'c'
+
+        cleanup:
+        engine.stopWorker()
+    }
+
+    def 'kill worker when it does not respond in time'() {
+        def engine = new CommandLineLesscCompilationEngine()
+        engine.workerCommand = StubLesscWorker.command() as String[]
+        engine.timeout = 5000
+        def compiler = new LessCompilerImpl(engine)
+
+        expect:
+        compiler.compile('a') == 'a'
+
+        when:
+        engine.timeout = 200
+        compiler.compile('sleep')
+
+        then:
+        thrown(CompilationTimeoutException)
+        engine.metrics.timeoutCount == 1
+
+        when:
+        engine.timeout = 5000
+
+        then:
+        compiler.compile('b') == 'b'
+        engine.metrics.spawnCount == 2
+
+        cleanup:
+        engine.stopWorker()
+    }
+
+    private File createScript(String name, String body) {
+        def script = new File("build/tmp/$name")
+        script.parentFile.mkdirs()
+        script.text = "#!/bin/sh\ncat > /dev/null\n$body\n"
+        script.executable = true
+        return script
+    }
+
+    /**
+     * Shell script that mimics lessc: it logs its invocation and prints css.
+     */
+    private File createFakeLessc(File log) {
+        def fakeLessc = new File('build/tmp/fake-lessc')
+        fakeLessc.parentFile.mkdirs()
+        fakeLessc.text = """#!/bin/sh
+echo "\$@" >> '${log.absolutePath}'
+cat > /dev/null
+printf 'a {\\n  color: red;\\n}\\n'
+"""
+        fakeLessc.executable = true
+        return fakeLessc
+    }
 }
@@ -16,8 +16,16 @@
 
 package com.github.houbie.lesscss.engine
 
+import com.github.houbie.lesscss.LessCompiler
+import com.github.houbie.lesscss.LessCompilerImpl
+import com.github.houbie.lesscss.Options
+import com.github.houbie.lesscss.resourcereader.ClasspathResourceReader
+import com.github.houbie.lesscss.resourcereader.TrackingResourceReader
 import spock.lang.Specification
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 class LessCompilationEngineFactorySpec extends Specification {
     def "test create default engine"() {
         expect:
@@ -29,4 +37,74 @@ class LessCompilationEngineFactorySpec extends Specification {
         LessCompilationEngineFactory.create('commandline', 'path/to/lessc').executable == 'path/to/lessc'
     }
 
+    def "warm up engines in the background"() {
+        def resourceReader = new TrackingResourceReader(new ClasspathResourceReader('warmup'))
+        LessCompilationEngineFactory.warmUpEnabled = true
+        LessCompilationEngineFactory.setWarmUpCorpus(resourceReader, 'warmup.less')
+        LessCompilationEngineFactory.warmUpIterations = 2
+
+        when:
+        def engine = LessCompilationEngineFactory.create('rhino-shared')
+        engine.initialize(null)
+        engine.warmUp.get(60, TimeUnit.SECONDS)
+
+        then:
+        engine instanceof WarmUpLessCompilationEngine
+        engine.engine instanceof SharedScopeRhinoLessCompilationEngine
+        engine.concurrent
+        resourceReader.imports == ['warmup.less', 'mixins.less', 'warmup.less', 'mixins.less']
+
+        when:
+        LessCompilationEngineFactory.warmUp('rhino-shared').get(60, TimeUnit.SECONDS)
+
+        then:
+        LessCompilationEngineFactory.warmUp('rhino-shared').is(LessCompilationEngineFactory.warmUp('rhino-shared'))
+
+        cleanup:
+        LessCompilationEngineFactory.warmUpEnabled = false
+        LessCompilationEngineFactory.setWarmUpCorpus(new ClasspathResourceReader(LessCompilationEngineFactory.DEFAULT_WARM_UP_PATH), LessCompilationEngineFactory.DEFAULT_WARM_UP_FILE)
+        LessCompilationEngineFactory.warmUpIterations = LessCompilationEngineFactory.DEFAULT_WARM_UP_ITERATIONS
+        LessCompilationEngineFactory.warmUps.clear()
+    }
+
+    def "the first compilation waits for the warm-up of the engine that is handed out"() {
+        def started = new CountDownLatch(1)
+        def warmedUp = false
+        def engine = Mock(LessCompilationEngine)
+        LessCompilationEngineFactory.setWarmUpCorpus(new ClasspathResourceReader('warmup'), 'warmup.less')
+        LessCompilationEngineFactory.warmUpIterations = 1
+        def warmUpEngine = new WarmUpLessCompilationEngine(engine, 'mock')
+
+        when:
+        warmUpEngine.initialize(null)
+        started.await(60, TimeUnit.SECONDS)
+        def result = warmUpEngine.compile('a {}', null, null)
+
+        then:
+        1 * engine.initialize(null)
+        1 * engine.compile({ it != 'a {}' }, _, _) >> { started.countDown(); Thread.sleep(100); warmedUp = true; null }
+        1 * engine.compile('a {}', null, null) >> { assert warmedUp; new LessCompiler.CompilationDetails('a {}\n', null) }
+        result.result == 'a {}\n'
+        warmUpEngine.warmUp == null
+        !warmUpEngine.concurrent
+
+        cleanup:
+        LessCompilationEngineFactory.setWarmUpCorpus(new ClasspathResourceReader(LessCompilationEngineFactory.DEFAULT_WARM_UP_PATH), LessCompilationEngineFactory.DEFAULT_WARM_UP_FILE)
+        LessCompilationEngineFactory.warmUpIterations = LessCompilationEngineFactory.DEFAULT_WARM_UP_ITERATIONS
+    }
+
+    def "default warm-up corpus compiles without errors"() {
+        def resourceReader = new ClasspathResourceReader(LessCompilationEngineFactory.DEFAULT_WARM_UP_PATH)
+
+        expect:
+        new LessCompilerImpl(new RhinoLessCompilationEngine()).compile(resourceReader.read('warmup.less'), resourceReader, new Options(), 'warmup.less').contains('.col-12 {\n  width: 100%;\n}')
+    }
+
+    def "commandline engine cannot be warmed up"() {
+        when:
+        LessCompilationEngineFactory.warmUp('commandline')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
 }
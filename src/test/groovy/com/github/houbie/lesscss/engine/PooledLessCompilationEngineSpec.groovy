@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine
+
+import com.github.houbie.lesscss.AbstractLineFeedFixingSpecification
+import com.github.houbie.lesscss.LessCompiler
+import com.github.houbie.lesscss.LessCompilerImpl
+import com.github.houbie.lesscss.LessParseException
+import com.github.houbie.lesscss.Options
+import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+import com.github.houbie.lesscss.resourcereader.ResourceReader
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class PooledLessCompilationEngineSpec extends AbstractLineFeedFixingSpecification {
+
+    def "compile concurrently with custom javascript"() {
+        def compiler = new LessCompilerImpl(new PooledLessCompilationEngine(4), new File('src/test/resources/less.js-tests/functions.js').text)
+        def basic = new File('src/test/resources/less/basic.less')
+        def imports = new File('src/test/resources/less/import.less')
+        def tasks = (1..40).collect { index ->
+            { ->
+                def file = (index % 2) ? basic : imports
+                compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name).result
+            } as Callable<String>
+        }
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def results = executor.invokeAll(tasks)*.get()
+
+        then:
+        results.unique().sort() == ['p {\n  color: #000000;\n  width: 2;\n}\n', new File('src/test/resources/less/import.css').text.replace('add(1, 1)', '2')].sort()
+        compiler.engine.idleEngineCount <= 4
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "engines are reused after a parse exception"() {
+        def engine = new PooledLessCompilationEngine(1)
+        def compiler = new LessCompilerImpl(engine)
+
+        when:
+        compiler.compile(new File('src/test/resources/less/broken.less'))
+
+        then:
+        thrown(LessParseException)
+        engine.idleEngineCount == 1
+        compiler.compile('div {\n  color: black;\n}\n') == 'div {\n  color: black;\n}\n'
+    }
+
+    def "fail when no engine becomes available within the borrow timeout"() {
+        def started = new CountDownLatch(1)
+        def finish = new CountDownLatch(1)
+        def engine = new BlockingPooledEngine(started, finish)
+        engine.borrowTimeout = 100
+        engine.initialize(null)
+
+        when:
+        Thread.start { engine.compile('', null, null) }
+        started.await()
+        engine.compile('', null, null)
+
+        then:
+        def e = thrown(RuntimeException)
+        e.message == 'No less compilation engine became available within 100 millis'
+
+        cleanup:
+        finish.countDown()
+    }
+
+    def "evict idle engines"() {
+        def engine = new PooledLessCompilationEngine(2)
+        engine.idleTimeout = 50
+        engine.initialize(null)
+
+        expect:
+        engine.idleEngineCount == 1
+
+        when:
+        sleep(100)
+        engine.compile('a {color: red;}', new CompilationOptions(new Options(), 'a.less', 'a.css', null), null)
+
+        then:
+        engine.idleEngineCount == 1
+    }
+
+    static class BlockingPooledEngine extends PooledLessCompilationEngine {
+        CountDownLatch started
+        CountDownLatch finish
+
+        BlockingPooledEngine(CountDownLatch started, CountDownLatch finish) {
+            super(1)
+            this.started = started
+            this.finish = finish
+        }
+
+        @Override
+        protected LessCompilationEngine createEngine() {
+            return new LessCompilationEngine() {
+                @Override
+                void initialize(Reader customJavaScriptReader) {
+                }
+
+                @Override
+                LessCompiler.CompilationDetails compile(String less, CompilationOptions compilationOptions, ResourceReader resourceReader) {
+                    started.countDown()
+                    finish.await()
+                    return new LessCompiler.CompilationDetails(less, null)
+                }
+            }
+        }
+    }
+}
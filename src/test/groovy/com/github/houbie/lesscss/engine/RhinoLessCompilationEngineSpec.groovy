@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine
+
+import com.github.houbie.lesscss.CompilationAbortedException
+import com.github.houbie.lesscss.CompilationTimeoutException
+import com.github.houbie.lesscss.LessCompilerImpl
+import com.github.houbie.lesscss.Options
+import com.github.houbie.lesscss.resourcereader.FileSystemResourceReader
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class RhinoLessCompilationEngineSpec extends Specification {
+    static final String SPIN = 'less.tree.functions.spin = function () { while (true) {} };'
+    static final String RECURSIVE_LOOPS = '.loop(@i) when (@i > 0) { .inner(40); .loop(@i - 1); } .inner(@j) when (@j > 0) { .inner(@j - 1); }' +
+            (1..100).collect { "a$it { .loop(40); }" }.join(' ')
+
+    @Unroll
+    def "abort #engineClass.simpleName compilation after timeout"() {
+        def engine = engineClass.newInstance()
+        engine.timeout = 300
+        def compiler = new LessCompilerImpl(engine, SPIN)
+        def start = System.currentTimeMillis()
+
+        when:
+        compiler.compile(less)
+
+        then:
+        thrown(CompilationTimeoutException)
+        System.currentTimeMillis() - start < 10000
+
+        and: 'the engine can still be used'
+        compiler.compile('a {b: 1 + 1;}') == 'a {\n  b: 2;\n}\n'
+
+        where:
+        engineClass                          | less
+        RhinoLessCompilationEngine           | 'a {b: spin();}'
+        SharedScopeRhinoLessCompilationEngine | 'a {b: spin();}'
+        RhinoLessCompilationEngine           | RECURSIVE_LOOPS
+    }
+
+    @Unroll
+    def "abort #engineClass.simpleName compilation when the thread is interrupted"() {
+        def compiler = new LessCompilerImpl(engineClass.newInstance(), SPIN)
+        def started = new CountDownLatch(1)
+        def exception = null
+        def thread = Thread.start {
+            started.countDown()
+            try {
+                compiler.compile('a {b: spin();}')
+            } catch (e) {
+                exception = e
+            }
+        }
+
+        when:
+        started.await()
+        Thread.sleep(100)
+        thread.interrupt()
+        thread.join(TimeUnit.SECONDS.toMillis(10))
+
+        then:
+        !thread.alive
+        exception instanceof CompilationAbortedException
+
+        where:
+        engineClass << [RhinoLessCompilationEngine, SharedScopeRhinoLessCompilationEngine]
+    }
+
+    @Unroll
+    def "#engineClass.simpleName reuses the parse trees of imported files"() {
+        def engine = engineClass.newInstance()
+        engine.importCacheSize = 1000000
+        def compiler = new LessCompilerImpl(engine)
+        def file = new File('src/test/resources/less/import.less')
+        def expected = new File('src/test/resources/less/import.css').text
+
+        when:
+        def first = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+        def second = compiler.compileWithDetails(file.text, new FileSystemResourceReader(file.parentFile), new Options(), file.name)
+
+        then:
+        first.result == expected
+        second.result == expected
+        second.imports == first.imports
+        engine.importCache.hits > 0
+
+        where:
+        engineClass << [RhinoLessCompilationEngine, SharedScopeRhinoLessCompilationEngine]
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.engine
+
+/**
+ * Stub for lessc-worker.js that speaks the same protocol:
+ * <ul>
+ * <li>'options' returns the request options as css</li>
+ * <li>'error...' returns an error</li>
+ * <li>'exit' kills the worker without responding</li>
+ * <li>'sleep' blocks the worker without responding</li>
+ * <li>anything else is returned as css, with basic.less in every include path as dependency</li>
+ * </ul>
+ */
+class StubLesscWorker {
+    static List<String> command() {
+        [new File(System.getProperty('java.home'), 'bin/java').path, '-cp', System.getProperty('java.class.path'), StubLesscWorker.name]
+    }
+
+    static void main(String[] args) {
+        def input = new DataInputStream(new BufferedInputStream(System.in))
+        def output = new DataOutputStream(new BufferedOutputStream(System.out))
+        while (true) {
+            List<String> request
+            try {
+                request = LesscWorker.readFrame(input)
+            } catch (EOFException ignored) {
+                System.exit(0)
+            }
+            def source = request[0]
+            def options = request.size() > 1 ? request[1..-1].collate(2) : []
+            if (source == 'exit') {
+                System.exit(1)
+            } else if (source == 'sleep') {
+                Thread.sleep(60000)
+            } else if (source == 'options') {
+                LesscWorker.writeFrame(output, ['ok', options.collect { it.join('=') }.join('\n'), null])
+            } else if (source.startsWith('error')) {
+                LesscWorker.writeFrame(output, ['error', "stub $source".toString()])
+            } else {
+                def sourceMap = options.contains(['sourceMap', 'true']) ? 'stub source map' : null
+                def dependencies = options.findAll { it[0] == 'path' }.collect { new File(it[1], 'basic.less').path }
+                LesscWorker.writeFrame(output, ['ok', source, sourceMap] + dependencies)
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.resourcereader
+
+import spock.lang.Specification
+
+class CachingResourceReaderSpec extends Specification {
+
+    def "test delegation"() {
+        when:
+        def delegate = new FileSystemResourceReader(new File('src/test/resources/ioutils'))
+        def cachingResourceReader = new CachingResourceReader(delegate)
+
+        then:
+        cachingResourceReader.canRead(location) == delegate.canRead(location)
+        cachingResourceReader.lastModified(location) == delegate.lastModified(location)
+        cachingResourceReader.read(location) == delegate.read(location)
+        cachingResourceReader.readBytes(location) == delegate.readBytes(location)
+
+        where:
+        location << ['plain.txt', 'does not exist']
+    }
+
+    def "read cached resources"() {
+        def delegate = Mock(ResourceReader)
+        def cachingResourceReader = new CachingResourceReader(delegate, 1000, 60000)
+
+        when:
+        def text = [cachingResourceReader.read('a'), cachingResourceReader.read('a')]
+        def bytes = [cachingResourceReader.readBytes('a'), cachingResourceReader.readBytes('a')]
+
+        then:
+        1 * delegate.read('a') >> 'text'
+        1 * delegate.readBytes('a') >> ([1, 2, 3] as byte[])
+        2 * delegate.lastModified('a') >> 1L
+        text == ['text', 'text']
+        bytes == [[1, 2, 3] as byte[], [1, 2, 3] as byte[]]
+        cachingResourceReader.hits == 2
+        cachingResourceReader.misses == 2
+        cachingResourceReader.size == 11
+    }
+
+    def "revalidate at most once per interval"() {
+        def dir = new File('build/tmp/caching-resource-reader')
+        dir.mkdirs()
+        def file = new File(dir, 'a.less')
+        file.text = 'original'
+        file.lastModified = 1000
+        def cachingResourceReader = new CachingResourceReader(new FileSystemResourceReader(dir), 1000, 200)
+
+        when:
+        cachingResourceReader.read('a.less')
+        file.text = 'modified'
+        file.lastModified = 2000
+
+        then:
+        cachingResourceReader.read('a.less') == 'original'
+        cachingResourceReader.lastModified('a.less') == 1000
+
+        when:
+        Thread.sleep(300)
+
+        then:
+        cachingResourceReader.read('a.less') == 'modified'
+        cachingResourceReader.lastModified('a.less') == 2000
+    }
+
+    def "evict least recently used resources"() {
+        def delegate = Mock(ResourceReader)
+        delegate.read(_) >> { String location -> location * 10 }
+        def cachingResourceReader = new CachingResourceReader(delegate, 50, 60000)
+
+        when:
+        cachingResourceReader.read('a')
+        cachingResourceReader.read('b')
+        cachingResourceReader.read('a')
+        cachingResourceReader.read('c')
+
+        then:
+        cachingResourceReader.size == 40
+        cachingResourceReader.read('a') == 'aaaaaaaaaa'
+        cachingResourceReader.hits == 2
+    }
+
+    def "do not cache unresolved resources"() {
+        def delegate = Mock(ResourceReader)
+        def cachingResourceReader = new CachingResourceReader(delegate)
+
+        when:
+        cachingResourceReader.read('a')
+        cachingResourceReader.read('a')
+
+        then:
+        2 * delegate.read('a') >> null
+        cachingResourceReader.size == 0
+    }
+}
@@ -18,6 +18,8 @@ package com.github.houbie.lesscss.resourcereader
 
 import spock.lang.Specification
 
+import java.net.JarURLConnection
+
 class ClasspathResourceReaderSpec extends Specification {
 
     def "read when location is a full path"() {
@@ -75,9 +77,40 @@ class ClasspathResourceReaderSpec extends Specification {
         reader.lastModified(location) == lastModified
 
         where:
-        location      | lastModified
-        'plain.txt'   | Long.MIN_VALUE
-        'cannot read' | Long.MAX_VALUE
+        location               | lastModified
+        'plain.txt'            | new File(ClasspathResourceReaderSpec.getResource('/ioutils/plain.txt').toURI()).lastModified()
+        '../ioutils/plain.txt' | new File(ClasspathResourceReaderSpec.getResource('/ioutils/plain.txt').toURI()).lastModified()
+        'cannot read'          | Long.MAX_VALUE
+    }
+
+    def "read resources from a jar"() {
+        setup:
+        def url = Specification.getResource('Specification.class')
+        def jarEntry = ((JarURLConnection) url.openConnection()).jarEntry
+
+        when:
+        def reader = new ClasspathResourceReader('spock/lang')
+
+        then:
+        reader.canRead('Specification.class')
+        reader.readBytes('Specification.class') == url.bytes
+        reader.lastModified('Specification.class') == jarEntry.time
+        reader.lastModified('../lang/Specification.class') == jarEntry.time
+        !reader.canRead('NoSuchClass.class')
+        reader.read('/ioutils/plain.txt') == 'plain text'
+    }
+
+    def "read indexed jar entries from the shared jar file"() {
+        setup:
+        def jarFile = ((JarURLConnection) Specification.getResource('Specification.class').openConnection()).jarFile
+
+        when:
+        def reader = new ClasspathResourceReader('spock/lang')
+        def resource = reader.index['Specification.class']
+
+        then:
+        resource.jarFile.is(jarFile)
+        reader.readBytes('Specification.class') == Specification.getResource('Specification.class').bytes
     }
 
     def "read bytes"() {
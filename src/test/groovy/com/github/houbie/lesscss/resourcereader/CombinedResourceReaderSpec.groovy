@@ -59,4 +59,53 @@ class CombinedResourceReaderSpec extends Specification {
         lastDelegate.read(location) == new File('src/test/resources/less/import1/import2/commonImported.less').text
         combiningResourceReader.read(location) == lastDelegate.read(location)
     }
+
+    def "remember which delegate resolved a location"() {
+        setup:
+        def firstDelegate = Mock(ResourceReader)
+        def lastDelegate = Mock(ResourceReader)
+        def combiningResourceReader = new CombiningResourceReader(firstDelegate, lastDelegate)
+        combiningResourceReader.routingMemo = true
+
+        when:
+        def first = combiningResourceReader.read('a.less')
+        def second = combiningResourceReader.read('a.less')
+        def lastModified = combiningResourceReader.lastModified('a.less')
+
+        then:
+        1 * firstDelegate.read('a.less') >> null
+        2 * lastDelegate.read('a.less') >> 'a'
+        1 * lastDelegate.lastModified('a.less') >> 123
+        0 * firstDelegate.lastModified(_)
+        first == 'a'
+        second == 'a'
+        lastModified == 123
+        combiningResourceReader.hits == [0, 3] as long[]
+
+        when: 'the remembered delegate cannot resolve the location anymore'
+        def third = combiningResourceReader.read('a.less')
+
+        then:
+        1 * lastDelegate.read('a.less') >> null
+        1 * firstDelegate.read('a.less') >> 'b'
+        third == 'b'
+        combiningResourceReader.hits == [1, 3] as long[]
+        combiningResourceReader.misses == 0
+    }
+
+    def "the routing memo is not part of the serialized form"() {
+        def delegate = new FileSystemResourceReader(new File('src/test/resources/ioutils'))
+        def reader = new CombiningResourceReader(delegate)
+        def memoizing = new CombiningResourceReader(delegate)
+        memoizing.routingMemo = true
+
+        expect:
+        serialize(reader) == serialize(memoizing)
+    }
+
+    private static byte[] serialize(Object object) {
+        def bytes = new ByteArrayOutputStream()
+        new ObjectOutputStream(bytes).withStream { it.writeObject(object) }
+        bytes.toByteArray()
+    }
 }
@@ -88,4 +88,100 @@ class FileSystemResourceReaderSpec extends Specification {
         'plain.txt'   | new File('src/test/resources/ioutils/plain.txt').lastModified()
         'cannot read' | Long.MAX_VALUE
     }
+
+    def "cache resolutions"() {
+        setup:
+        def dir1 = new File('build/tmp/resolutionCache/dir1')
+        def dir2 = new File('build/tmp/resolutionCache/dir2')
+        dir1.parentFile.deleteDir()
+        [dir1, dir2]*.mkdirs()
+        def file = new File(dir2, 'a.less')
+        def reader = new FileSystemResourceReader(dir1, dir2)
+        reader.resolutionCacheTtl = 60000
+
+        expect: 'unresolved locations are cached'
+        !reader.canRead('a.less')
+
+        when:
+        file.text = 'a'
+
+        then:
+        !reader.canRead('a.less')
+        reader.read('a.less') == null
+
+        when:
+        reader.clearResolutionCache()
+
+        then:
+        reader.canRead('a.less')
+        reader.read('a.less') == 'a'
+
+        when: 'a cached file is removed'
+        file.delete()
+
+        then:
+        !reader.canRead('a.less')
+        reader.lastModified('a.less') == Long.MAX_VALUE
+        reader.read('a.less') == null
+        reader.readBytes('a.less') == null
+    }
+
+    def "resolve a removed file again in the other base directories"() {
+        setup:
+        def dir1 = new File('build/tmp/resolutionCache/dir1')
+        def dir2 = new File('build/tmp/resolutionCache/dir2')
+        dir1.parentFile.deleteDir()
+        [dir1, dir2]*.mkdirs()
+        new File(dir1, 'a.less').text = 'a1'
+        new File(dir2, 'a.less').text = 'a2'
+        def reader = new FileSystemResourceReader(dir1, dir2)
+        reader.resolutionCacheTtl = 60000
+
+        expect:
+        reader.canRead('a.less')
+
+        when:
+        new File(dir1, 'a.less').delete()
+
+        then:
+        reader.canRead('a.less')
+        reader.read('a.less') == 'a2'
+    }
+
+    def "the resolution cache TTL does not change the identity"() {
+        setup:
+        def reader = new FileSystemResourceReader(new File('build/tmp'))
+        def tuned = new FileSystemResourceReader(new File('build/tmp'))
+        tuned.resolutionCacheTtl = 60000
+
+        expect:
+        reader == tuned
+        reader.hashCode() == tuned.hashCode()
+        serialize(reader) == serialize(tuned)
+    }
+
+    def "cached resolutions expire"() {
+        setup:
+        def dir = new File('build/tmp/resolutionCache')
+        dir.deleteDir()
+        dir.mkdirs()
+        def reader = new FileSystemResourceReader(dir)
+        reader.resolutionCacheTtl = 100
+
+        expect:
+        !reader.canRead('a.less')
+
+        when:
+        new File(dir, 'a.less').text = 'a'
+        sleep(200)
+
+        then:
+        reader.read('a.less') == 'a'
+    }
+
+    private static byte[] serialize(Object object) {
+        def bytes = new ByteArrayOutputStream()
+        new ObjectOutputStream(bytes).withStream { it.writeObject(object) }
+        bytes.toByteArray()
+    }
 }
@@ -45,4 +45,72 @@ class TrackingResourceReaderSpec extends Specification {
         then:
         trackingResourceReader.getReadResources() == ['a', 'b', '../a', 'a/c'] //read locations should be normalized
     }
+
+    def "resolve relative to the directory of the importing file"() {
+        when:
+        def delegate = new FileSystemResourceReader(new File('src/test/resources/less'))
+        def trackingResourceReader = new TrackingResourceReader(delegate)
+        def direct = trackingResourceReader.resolve('imported0.less', 'import1')
+        def relative = trackingResourceReader.resolve('imported2.less', 'import1/import2')
+        def missing = trackingResourceReader.resolve('missing.less', 'import1')
+        def bytes = trackingResourceReader.resolveBytes('imported2.less', 'import1/./import2')
+
+        then:
+        direct.location == 'imported0.less'
+        direct.content == delegate.read('imported0.less')
+        direct.lastModified == delegate.lastModified('imported0.less')
+        relative.location == 'import1/import2/imported2.less'
+        relative.content == delegate.read('import1/import2/imported2.less')
+        missing == null
+        bytes.location == 'import1/import2/imported2.less'
+        bytes.bytes == delegate.readBytes('import1/import2/imported2.less')
+        trackingResourceReader.getReadResources() == ['imported0.less', 'import1/import2/imported2.less']
+    }
+
+    def "access every location only once and look up the timestamp on demand"() {
+        setup:
+        def delegate = Mock(ResourceReader)
+        def trackingResourceReader = new TrackingResourceReader(delegate)
+
+        when:
+        def relative = trackingResourceReader.resolve('imported.less', 'dir')
+
+        then:
+        1 * delegate.read('imported.less') >> null
+        1 * delegate.read('dir/imported.less') >> 'content'
+        0 * delegate._
+        relative.content == 'content'
+
+        when:
+        def lastModified = relative.lastModified
+
+        then:
+        1 * delegate.lastModified('dir/imported.less') >> 123
+        lastModified == 123
+        relative.lastModified == 123
+    }
+
+    def "a resource that may have been modified while it was read has no timestamp"() {
+        setup:
+        def dir = new File('build/tmp/trackingResourceReader')
+        dir.mkdirs()
+        new File(dir, 'recent.less').text = 'recent'
+
+        expect:
+        new TrackingResourceReader(new FileSystemResourceReader(dir)).resolve('recent.less', '').lastModified == Long.MIN_VALUE
+    }
+
+    def "join locations like the compiler"() {
+        expect:
+        TrackingResourceReader.join(directory, location) == expected
+
+        where:
+        directory   | location       | expected
+        'a/b'       | 'c.less'       | 'a/b/c.less'
+        'a/b'       | '../c.less'    | 'a/c.less'
+        'a/./b/'    | './c.less'     | 'a/b/c.less'
+        '/a'        | 'c.less'       | '/a/c.less'
+        '..'        | '../c.less'    | '../../c.less'
+        'a\\b'      | 'c.less'       | 'a/b/c.less'
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2013 Houbrechts IT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.houbie.lesscss.utils
+
+import spock.lang.Specification
+
+class DigestUtilsSpec extends Specification {
+    static final String ABC_DIGEST = 'ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad'
+
+    def "digest strings and bytes"() {
+        expect:
+        DigestUtils.digest('abc') == ABC_DIGEST
+        DigestUtils.digest('abc'.bytes) == ABC_DIGEST
+        DigestUtils.digest((String) null) == null
+        DigestUtils.digest((byte[]) null) == null
+    }
+
+    def "sequences of contents are unambiguous"() {
+        def digest = { String... contents ->
+            def messageDigest = DigestUtils.newMessageDigest()
+            contents.each { DigestUtils.update(messageDigest, it) }
+            DigestUtils.toHex(messageDigest.digest())
+        }
+
+        expect:
+        digest('ab', 'c') != digest('a', 'bc')
+        digest('a', null) != digest('a', '')
+        digest('a', 'b') == digest('a', 'b')
+    }
+}
@@ -18,6 +18,9 @@ package com.github.houbie.lesscss.utils
 
 import spock.lang.Specification
 
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+
 class IOUtilsSpec extends Specification {
 
     def "read a file without encoding"() {
@@ -30,6 +33,65 @@ class IOUtilsSpec extends Specification {
         IOUtils.read(new File('src/test/resources/ioutils/utf16.txt'), 'utf16') == 'utf16 text'
     }
 
+    def "read files with different encodings on the same thread"() {
+        expect:
+        IOUtils.read(new File('src/test/resources/ioutils/utf16.txt'), 'utf16') == 'utf16 text'
+        IOUtils.read(new File('src/test/resources/ioutils/plain.txt'), 'UTF-8') == 'plain text'
+        IOUtils.read(new File('src/test/resources/ioutils/utf16.txt'), 'UTF-16') == 'utf16 text'
+    }
+
+    def "read a file with malformed input"() {
+        def file = new File('build/tmp/ioutilsmalformed.txt')
+        file.bytes = [0x61, 0xff, 0x62] as byte[]
+
+        expect:
+        IOUtils.read(file, 'UTF-8') == 'a\ufffdb'
+    }
+
+    def "read a file with an unknown encoding"() {
+        when:
+        IOUtils.read(new File('src/test/resources/ioutils/plain.txt'), 'unknown')
+
+        then:
+        thrown(UnsupportedEncodingException)
+    }
+
+    def "read a large file"() {
+        def file = new File('build/tmp/ioutilslarge.txt')
+        def line = 'large \u00e9\u20ac text\n'
+        file.withWriter('UTF-8') { writer ->
+            (8 * 1024 * 1024 / line.length()).times { writer.write(line) }
+        }
+
+        when:
+        def content = IOUtils.read(file, 'UTF-8')
+
+        then:
+        file.length() > 8 * 1024 * 1024
+        content == file.getText('UTF-8')
+
+        cleanup:
+        file.delete()
+    }
+
+    def "release a memory mapping"() {
+        def file = new File('build/tmp/ioutilsmapped.txt')
+        file.text = 'mapped'
+        def inputStream = new FileInputStream(file)
+        def buffer = inputStream.channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+        inputStream.close()
+
+        expect:
+        IOUtils.unmap(buffer)
+        file.delete()
+    }
+
+    def "read bytes from a file"() {
+        expect:
+        IOUtils.readBytes(new File('src/test/resources/ioutils/utf16.txt')) == new File('src/test/resources/ioutils/utf16.txt').bytes
+        IOUtils.readBytes(new File('src/test/resources/ioutils/plain.txt')) == 'plain text'.bytes
+    }
+
     def "read a url without encoding"() {
         expect:
         IOUtils.read(IOUtils.classLoader.getResource('ioutils/plain.txt')) == 'plain text'
@@ -62,6 +124,41 @@ class IOUtilsSpec extends Specification {
         file.text == 'content'
     }
 
+    def "write a large string to a channel and a writer"() {
+        def content = 'large \u00e9\u20ac text\n' * 10000
+        def outputStream = new ByteArrayOutputStream()
+        def writer = new StringWriter()
+
+        when:
+        IOUtils.write(content, Channels.newChannel(outputStream), 'UTF-8')
+        IOUtils.write(content, writer)
+
+        then:
+        outputStream.toString('UTF-8') == content
+        writer.toString() == content
+    }
+
+    def "write a file only when its content changed"() {
+        def file = new File('build/tmp/ioutilschanged.txt')
+        file.delete()
+
+        expect:
+        IOUtils.writeFileIfChanged('content', file, 'UTF-8')
+        file.text == 'content'
+
+        when:
+        file.lastModified = 1000000000000
+
+        then:
+        !IOUtils.writeFileIfChanged('content', file, 'UTF-8')
+        file.lastModified() == 1000000000000
+        IOUtils.writeFileIfChanged('content', file, 'UTF-16')
+        file.getText('UTF-16') == 'content'
+        IOUtils.writeFileIfChanged('other content', file, 'UTF-16')
+        file.getText('UTF-16') == 'other content'
+        file.parentFile.list().findAll { it.startsWith('ioutilschanged') } == ['ioutilschanged.txt']
+    }
+
     def "write file UTF16"() {
         def file = new File('build/tmp/ioutilstest.txt')
         IOUtils.writeFile('content', file, 'UTF16')